@@ -10,6 +10,7 @@ import me.autobot.lib.server.WSClient;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * LIDAR Mechanism that can construct a terrain map from LIDAR data.
@@ -42,6 +43,17 @@ public class LIDAR extends Mechanism {
             this.angle = angle;
             this.intensity = intensity;
         }
+
+        /**
+         * Sets the point to a point of a scan.
+         * @param scan The scan.
+         * @param index The index of the point in the scan.
+         * */
+        void set(LidarScan scan, int index) {
+            this.distance = scan.range[index];
+            this.angle = scan.angle[index];
+            this.intensity = scan.intensity[index];
+        }
     }
 
     /**
@@ -54,9 +66,9 @@ public class LIDAR extends Mechanism {
         public static class Response {
             /**
              * Called when the LIDAR sensor has new data.
-             * @param points The points from the LIDAR sensor.
+             * @param scan The scan from the LIDAR sensor. It is reused for the next scan after this returns, so copy it to keep it.
              * */
-            public void onLidarData(Point[] points) {
+            public void onLidarData(LidarScan scan) {
 
             }
         }
@@ -71,54 +83,41 @@ public class LIDAR extends Mechanism {
         }
 
         /**
-         * Called when the LIDAR sensor has new data.
-         * @param data The data from the LIDAR sensor.
+         * Called when the LIDAR sensor has new data. The scan is decoded straight from the bytes into a pooled {@link LidarScan}.
+         * @param data The array the data from the LIDAR sensor is in.
+         * @param offset The index of the first byte of the data.
+         * @param length The number of bytes of data.
          * */
         @Override
-        public void onUpdate(int[] data) {
-            // first two bytes are 0xA55A
-            if (data[0] != 0xA5 || data[1] != 0x5A) {
-                return;
-            }
+        public void onUpdate(byte[] data, int offset, int length) {
+            LidarScan scan = LidarScan.acquire();
 
-            // next byte is if there was an error
-            if (data[2] != 0) {
-                return;
-            }
-
-            // next 4 bytes is the timestamp (unsigned int)
-            int timestamp = data[3] << 24 | data[4] << 16 | data[5] << 8 | data[6];
-
-            // next 4 bytes is the range (float)
-            float range = Float.intBitsToFloat(data[7] << 24 | data[8] << 16 | data[9] << 8 | data[10]);
-
-            int numPoints = Mathf.getIntFromBytes(data, 11, 4, true);
-
-            // copy the rest of the bytes to the point data
-            int[] pointData = new int[data.length - 15];
-            System.arraycopy(data, 15, pointData, 0, pointData.length);
-
-            // each point is 12 bytes
-            // offset byte 0...3: rotation (float)
-            // offset byte 4...7: range (float)
-            // offset byte 8...11: intensity (float)
-
-            Point[] points = new Point[numPoints];
+            try {
+                if (!scan.decode(data, offset, length)) {
+                    return;
+                }
 
-            int onPoint = 0;
-            for (int i = 0; i < pointData.length; i += Float.BYTES * 3) {
-                float rotation = Mathf.getFloatFromBytes(pointData, i, 4, true);
-                float distance = Mathf.getFloatFromBytes(pointData, i + 4, 4, true);
-                float intensity = Mathf.getFloatFromBytes(pointData, i + 8, 4, true);
+                for (Response response : responses) {
+                    response.onLidarData(scan);
+                }
+            } finally {
+                LidarScan.release(scan);
+            }
+        }
 
-                points[onPoint] = new Point(distance, rotation, intensity);
+        /**
+         * Called when the LIDAR sensor has new data, as integers from 0 to 255.
+         * @param data The data from the LIDAR sensor.
+         * */
+        @Override
+        public void onUpdate(int[] data) {
+            byte[] bytes = new byte[data.length];
 
-                onPoint++;
+            for (int i = 0; i < data.length; i++) {
+                bytes[i] = (byte) data[i];
             }
 
-            for (Response response : responses) {
-                response.onLidarData(points);
-            }
+            onUpdate(bytes, 0, bytes.length);
         }
 
         /**
@@ -141,13 +140,30 @@ public class LIDAR extends Mechanism {
 
     private WSLidarSensorConnection lidarSensor;
 
-    private static ArrayList<WSClient> subscribers = new ArrayList<>();
-    private static ArrayList<WSClient> specificSubscribers = new ArrayList<>();
+    private static final CopyOnWriteArrayList<WSClient> subscribers = new CopyOnWriteArrayList<>();
+    private static final CopyOnWriteArrayList<WSClient> compactSubscribers = new CopyOnWriteArrayList<>();
+    private static final CopyOnWriteArrayList<WSClient> specificSubscribers = new CopyOnWriteArrayList<>();
+
+    // the keys of the scans in the outbound queues of the clients
+    private static final String SCAN_KEY = "lidar/scan";
+    private static final String COMPACT_SCAN_KEY = "lidar/compact_scan";
+    private static final String SPECIFIC_SCAN_KEY = "lidar/specific_scan";
+
+    // every frame starts with its type and 3 reserved bytes
+    private static final int FRAME_HEADER = 4;
+
+    // distance, angle and intensity as big-endian floats
+    private static final int FULL_POINT_SIZE = 3 * Float.BYTES;
+
+    // range (uint16, mm), angle (uint16, 1/100 of a degree) and intensity (uint8)
+    private static final int COMPACT_POINT_SIZE = 5;
 
+    // the LIDAR script sends the range multiplied by 25 (see sensors/lidar.py)
+    private static final float RANGE_UNITS_PER_METRE = 25;
 
     static {
         System.out.println("[Mechanism] Registering LIDAR at 0xA5 callable for subscription. See class docs for details.");
-        // callable `0xA5` (1) | (1) is whether to subscribe or not, 0 is no, 1 is yes
+        // callable `0xA5` (1) | (1) is whether to subscribe or not, 0 is no, 1 is yes, 2 is yes (compact)
 
         WSClient.registerCallable(0xA5, new RunnableWithArgs() {
             @Override
@@ -155,7 +171,7 @@ public class LIDAR extends Mechanism {
                 if (data.length > 1) {
                     int specific = data[1];
                     if (specific == 0x01) {
-                        specificSubscribers.add(client);
+                        specificSubscribers.addIfAbsent(client);
                         System.out.println("[LIDAR] Subscribed client to specific LIDAR data.");
                     } else if (specific == 0x00) {
                         specificSubscribers.remove(client);
@@ -164,11 +180,17 @@ public class LIDAR extends Mechanism {
                     return;
                 }
 
+                // a client is only ever sent one of the formats
+                subscribers.remove(client);
+                compactSubscribers.remove(client);
+
                 if (data[0] == 1) {
                     subscribers.add(client);
                     System.out.println("[LIDAR] Subscribed client to LIDAR data.");
+                } else if (data[0] == 2) {
+                    compactSubscribers.add(client);
+                    System.out.println("[LIDAR] Subscribed client to compact LIDAR data.");
                 } else {
-                    subscribers.remove(client);
                     System.out.println("[LIDAR] Unsubscribed client from LIDAR data.");
                 }
             }
@@ -184,8 +206,8 @@ public class LIDAR extends Mechanism {
         lidarSensor = new WSLidarSensorConnection();
         lidarSensor.addResponse(new WSLidarSensorConnection.Response() {
             @Override
-            public void onLidarData(Point[] points) {
-                LIDAR.this.onLidarData(points);
+            public void onLidarData(LidarScan scan) {
+                LIDAR.this.onLidarData(scan);
             }
         });
     }
@@ -205,113 +227,132 @@ public class LIDAR extends Mechanism {
 
     /**
      * Called when the LIDAR sensor has new data.
-     * @param points The points from the LIDAR sensor.
+     * @param scan The scan from the LIDAR sensor. It is reused for the next scan after this returns.
      * */
-    protected void onLidarData(Point[] points) {
+    protected void onLidarData(LidarScan scan) {
         // clear points
         this.points.clear();
 
-        for (Point point : points) {
+        for (int i = 0; i < scan.size(); i++) {
             // add the point to the list of points
-            //this.points.add(new Polar(point.distance, Rotation2d.fromRadians(point.angle)).toVector());
+            //this.points.add(new Polar(scan.range[i], Rotation2d.fromRadians(scan.angle[i])).toVector());
 
-            double normalizedAngle = Mathf.normalizeAngle(point.angle);
+            double normalizedAngle = Mathf.normalizeAngle(scan.angle[i]);
 
             if (Mathf.close(normalizedAngle, 0.08, 0.03)) {
-                straightAhead = point;
+                straightAhead.set(scan, i);
                 if (straightAhead.distance == 0) {
                     straightAhead.distance = 1000;
                 }
             } else if (Mathf.close(normalizedAngle, Math.PI / 4, 0.001)) {
-                frontRight = point;
+                frontRight.set(scan, i);
             } else if (Mathf.close(normalizedAngle,  7 * Math.PI / 4, 0.001)) {
-                frontLeft = point;
+                frontLeft.set(scan, i);
             }
         }
 
+        // each frame is built once per scan and the same array is queued for every subscriber
+        // (a new array each scan, since the queues keep it until it's written)
         if (!specificSubscribers.isEmpty()) {
-            byte[] point_payload = new byte[3 * 12];
+            ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER + 3 * FULL_POINT_SIZE);
+            frame.put(0, (byte) 0xA6);
 
-            Point[] spec_points = new Point[] {straightAhead, frontLeft, frontRight};
+            putPoint(frame, FRAME_HEADER, straightAhead);
+            putPoint(frame, FRAME_HEADER + FULL_POINT_SIZE, frontLeft);
+            putPoint(frame, FRAME_HEADER + 2 * FULL_POINT_SIZE, frontRight);
 
-            for (int i = 0; i < 3; i++) {
-                byte[] distance = ByteBuffer.allocate(4).putFloat(spec_points[i].distance).array();
-                byte[] angle = ByteBuffer.allocate(4).putFloat(spec_points[i].angle).array();
-                byte[] intensity = ByteBuffer.allocate(4).putFloat(spec_points[i].intensity).array();
+            // only the latest scan matters, a client that's behind skips the scans it couldn't keep up with
+            broadcast(specificSubscribers, SPECIFIC_SCAN_KEY, frame.array());
+        }
 
-                System.arraycopy(distance, 0, point_payload, i * 12, 4);
-                System.arraycopy(angle, 0, point_payload, i * 12 + 4, 4);
-                System.arraycopy(intensity, 0, point_payload, i * 12 + 8, 4);
-            }
+        //System.out.println("LIDAR received " + points.length + " points.");
 
-            byte[] finalPayload = new byte[point_payload.length + 4];
+        if (!subscribers.isEmpty()) {
+            broadcast(subscribers, SCAN_KEY, encodeFull(scan));
+        }
 
-            System.arraycopy(point_payload, 0, finalPayload, 4, point_payload.length);
+        if (!compactSubscribers.isEmpty()) {
+            broadcast(compactSubscribers, COMPACT_SCAN_KEY, encodeCompact(scan));
+        }
+    }
 
-            finalPayload[0] = (byte) 0xA6;
+    /**
+     * Writes a point into a frame, as its distance, angle and intensity (big-endian floats).
+     * @param frame The frame.
+     * @param index The index in the frame to write the point at.
+     * @param point The point.
+     * */
+    private static void putPoint(ByteBuffer frame, int index, Point point) {
+        frame.putFloat(index, point.distance);
+        frame.putFloat(index + 4, point.angle);
+        frame.putFloat(index + 8, point.intensity);
+    }
 
-            ArrayList<WSClient> toRemove = new ArrayList<>();
+    /**
+     * Encodes a scan as a full frame: {@code 0xA5}, 3 reserved bytes, then the distance, angle and intensity of every point (big-endian floats, 12 bytes per point).
+     * @param scan The scan.
+     * @return The encoded frame.
+     * */
+    static byte[] encodeFull(LidarScan scan) {
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER + scan.size() * FULL_POINT_SIZE);
+        frame.put(0, (byte) 0xA5);
 
-            for (WSClient client : specificSubscribers) {
-                if (!client.isOpen()) {
-                    toRemove.add(client);
-                    continue;
-                }
+        int at = FRAME_HEADER;
 
-                try {
-                    client.send(finalPayload);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
+        for (int i = 0; i < scan.size(); i++) {
+            frame.putFloat(at, scan.range[i]);
+            frame.putFloat(at + 4, scan.angle[i]);
+            frame.putFloat(at + 8, scan.intensity[i]);
 
-            specificSubscribers.removeAll(toRemove);
+            at += FULL_POINT_SIZE;
         }
 
-        //System.out.println("LIDAR received " + points.length + " points.");
-
-        if (subscribers.isEmpty()) {
-            return;
-        }
+        return frame.array();
+    }
 
-        byte[] point_payload = new byte[points.length * 12];
+    /**
+     * Encodes a scan as a compact frame: {@code 0xA7}, 3 reserved bytes, then for every point (5 bytes per point, big-endian)
+     * the range in mm (uint16, up to 65.535 m), the angle in 1/100 of a degree (uint16, 0 to 35999) and the intensity (uint8, clamped to 0-255).
+     * @param scan The scan.
+     * @return The encoded frame.
+     * */
+    static byte[] encodeCompact(LidarScan scan) {
+        byte[] frame = new byte[FRAME_HEADER + scan.size() * COMPACT_POINT_SIZE];
+        frame[0] = (byte) 0xA7;
 
-        //double avgDistance = 0;
+        int at = FRAME_HEADER;
 
-        for (int i = 0; i < points.length; i++) {
-            byte[] distance = ByteBuffer.allocate(4).putFloat(points[i].distance).array();
-            byte[] angle = ByteBuffer.allocate(4).putFloat(points[i].angle).array();
-            byte[] intensity = ByteBuffer.allocate(4).putFloat(points[i].intensity).array();
+        for (int i = 0; i < scan.size(); i++) {
+            int range = (int) Mathf.clamp(Math.round(scan.range[i] * (1000 / RANGE_UNITS_PER_METRE)), 0, 0xFFFF);
+            int angle = (int) Math.round(Math.toDegrees(Mathf.normalizeAngle(scan.angle[i])) * 100) % 36000;
+            int intensity = (int) Mathf.clamp(Math.round(scan.intensity[i]), 0, 0xFF);
 
-            System.arraycopy(distance, 0, point_payload, i * 12, 4);
-            System.arraycopy(angle, 0, point_payload, i * 12 + 4, 4);
-            System.arraycopy(intensity, 0, point_payload, i * 12 + 8, 4);
+            frame[at] = (byte) (range >>> 8);
+            frame[at + 1] = (byte) range;
+            frame[at + 2] = (byte) (angle >>> 8);
+            frame[at + 3] = (byte) angle;
+            frame[at + 4] = (byte) intensity;
 
-            //avgDistance += points[i].distance;
+            at += COMPACT_POINT_SIZE;
         }
 
-        //avgDistance /= points.length;
-
-        byte[] finalPayload = new byte[point_payload.length + 4];
-        System.arraycopy(point_payload, 0, finalPayload, 4, point_payload.length);
-
-        finalPayload[0] = (byte) 0xA5;
-
-        ArrayList<WSClient> toRemove = new ArrayList<>();
+        return frame;
+    }
 
+    /**
+     * Sends a frame to every open subscriber, and removes the ones that closed.
+     * @param subscribers The subscribers.
+     * @param key The key of the frame in the outbound queues of the clients.
+     * @param frame The frame. It is shared by every subscriber, so it must not be changed.
+     * */
+    private static void broadcast(CopyOnWriteArrayList<WSClient> subscribers, String key, byte[] frame) {
         for (WSClient client : subscribers) {
             if (!client.isOpen()) {
-                toRemove.add(client);
+                subscribers.remove(client);
                 continue;
             }
 
-            try {
-                client.send(finalPayload);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+            client.send(key, frame);
         }
-
-        subscribers.removeAll(toRemove);
     }
 }
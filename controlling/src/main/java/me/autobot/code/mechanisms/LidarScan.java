@@ -0,0 +1,170 @@
+package me.autobot.code.mechanisms;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+
+/**
+ * One scan of the LIDAR, as parallel arrays (point i is {@code angle[i]}, {@code range[i]} and {@code intensity[i]}).
+ * <p>
+ * Scans are pooled: the connection takes a scan from the pool, decodes into it, hands it to its responses and then puts it back,
+ * so the arrays are reused between scans instead of creating an object per point.
+ * A scan is only valid while it's being handed to the responses; anything that needs to keep it should {@link #copyTo(LidarScan)} it.
+ * */
+public class LidarScan {
+    // each point is 12 bytes: rotation, range and intensity (little-endian floats)
+    private static final int POINT_SIZE = 3 * Float.BYTES;
+
+    // the payload starts with 0xA5 0x5A, the error byte, the timestamp (4 bytes), the range (4 bytes) and the number of points (4 bytes)
+    private static final int HEADER_SIZE = 15;
+
+    // scans waiting to be reused, a couple is enough since scans are handed out one at a time
+    private static final int POOL_SIZE = 4;
+    private static final ArrayDeque<LidarScan> pool = new ArrayDeque<>();
+
+    /**
+     * The angle of each point, in radians.
+     * */
+    public float[] angle;
+
+    /**
+     * The range (distance) of each point.
+     * */
+    public float[] range;
+
+    /**
+     * The intensity of each point.
+     * */
+    public float[] intensity;
+
+    private int size = 0;
+    private long timestamp = 0;
+
+    /**
+     * Creates a new, empty scan.
+     * @param capacity The number of points the scan can hold before it has to grow.
+     * */
+    public LidarScan(int capacity) {
+        angle = new float[capacity];
+        range = new float[capacity];
+        intensity = new float[capacity];
+    }
+
+    /**
+     * Takes a scan from the pool, or creates one if the pool is empty.
+     * @return An empty scan.
+     * */
+    public static LidarScan acquire() {
+        LidarScan scan;
+
+        synchronized (pool) {
+            scan = pool.poll();
+        }
+
+        if (scan == null) {
+            scan = new LidarScan(0);
+        }
+
+        scan.size = 0;
+        return scan;
+    }
+
+    /**
+     * Puts a scan back into the pool. The scan must not be used after this.
+     * @param scan The scan to put back.
+     * */
+    public static void release(LidarScan scan) {
+        synchronized (pool) {
+            if (pool.size() < POOL_SIZE) {
+                pool.push(scan);
+            }
+        }
+    }
+
+    /**
+     * Decodes the payload of a LIDAR update into this scan, reading the points straight from the bytes.
+     * @param data The array the payload is in.
+     * @param offset The index of the first byte of the payload.
+     * @param length The number of bytes in the payload.
+     * @return True if the payload was a valid scan, false if it wasn't (in which case the scan is empty).
+     * */
+    public boolean decode(byte[] data, int offset, int length) {
+        size = 0;
+
+        // first two bytes are 0xA55A, and the next byte is if there was an error
+        if (length < HEADER_SIZE || data[offset] != (byte) 0xA5 || data[offset + 1] != (byte) 0x5A || data[offset + 2] != 0) {
+            return false;
+        }
+
+        ByteBuffer header = ByteBuffer.wrap(data, offset, length);
+
+        // the timestamp is an unsigned, big-endian int
+        timestamp = header.getInt(offset + 3) & 0xFFFFFFFFL;
+
+        ByteBuffer payload = header.order(ByteOrder.LITTLE_ENDIAN);
+
+        int points = Math.min(payload.getInt(offset + 11), (length - HEADER_SIZE) / POINT_SIZE);
+
+        if (points < 0) {
+            return false;
+        }
+
+        ensureCapacity(points);
+
+        int at = offset + HEADER_SIZE;
+
+        for (int i = 0; i < points; i++) {
+            angle[i] = payload.getFloat(at);
+            range[i] = payload.getFloat(at + 4);
+            intensity[i] = payload.getFloat(at + 8);
+
+            at += POINT_SIZE;
+        }
+
+        size = points;
+        return true;
+    }
+
+    /**
+     * Makes sure the scan can hold a number of points, growing the arrays if needed (the points are not kept).
+     * @param capacity The number of points.
+     * */
+    private void ensureCapacity(int capacity) {
+        if (angle.length < capacity) {
+            angle = new float[capacity];
+            range = new float[capacity];
+            intensity = new float[capacity];
+        }
+    }
+
+    /**
+     * Copies this scan into another one, e.g. to keep it after it's put back into the pool.
+     * @param other The scan to copy into.
+     * */
+    public void copyTo(LidarScan other) {
+        other.ensureCapacity(size);
+
+        System.arraycopy(angle, 0, other.angle, 0, size);
+        System.arraycopy(range, 0, other.range, 0, size);
+        System.arraycopy(intensity, 0, other.intensity, 0, size);
+
+        other.size = size;
+        other.timestamp = timestamp;
+    }
+
+    /**
+     * Gets the number of points in the scan.
+     * @return The number of points.
+     * */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the timestamp the LIDAR gave the scan.
+     * @return The timestamp of the scan.
+     * */
+    public long getTimestamp() {
+        return timestamp;
+    }
+}
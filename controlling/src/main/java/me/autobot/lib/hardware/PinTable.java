@@ -0,0 +1,106 @@
+package me.autobot.lib.hardware;
+
+import me.autobot.lib.math.Mathf;
+import me.autobot.lib.robot.Sensor;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A direct table from the pins of a sensor hub to the sensor channels they feed, so each reading is dispatched in O(1).
+ * <p>
+ * The table has an entry for every pin a byte can address (0 to 255). Most pins feed a single channel,
+ * but a pin can feed several (if more than one sensor subscribed to it), so each entry is a short chain.
+ * Subscribing replaces the table (copy on write), so the reader thread never locks.
+ * */
+public class PinTable {
+    /**
+     * The number of pins that can be addressed.
+     * */
+    public static final int PINS = 256;
+
+    /**
+     * A sensor channel fed by a pin.
+     * */
+    private static class Target {
+        private final Sensor sensor;
+        private final int channel;
+        private final Target next;
+
+        private Target(Sensor sensor, int channel, Target next) {
+            this.sensor = sensor;
+            this.channel = channel;
+            this.next = next;
+        }
+    }
+
+    private volatile Target[] table = new Target[PINS];
+
+    private final AtomicLong dispatched = new AtomicLong(0);
+    private final AtomicLong unknown = new AtomicLong(0);
+
+    /**
+     * Creates a new, empty pin table.
+     * */
+    public PinTable() {
+
+    }
+
+    /**
+     * Adds a sensor to the table: the nth pin feeds the nth channel of the sensor.
+     * @param sensor The sensor.
+     * @param pins The pins of the sensor, in the order of its channels. Negative pins (from signed bytes) are made positive.
+     * */
+    public synchronized void add(Sensor sensor, int... pins) {
+        Target[] updated = table.clone();
+
+        for (int channel = 0; channel < pins.length; channel++) {
+            int pin = Mathf.allPos(pins[channel]);
+
+            if (pin < 0 || pin >= PINS) {
+                throw new IllegalArgumentException("Pin " + pins[channel] + " is out of range (0-" + (PINS - 1) + ").");
+            }
+
+            updated[pin] = new Target(sensor, channel, updated[pin]);
+        }
+
+        table = updated;
+    }
+
+    /**
+     * Sends a reading to every sensor channel fed by a pin.
+     * @param pin The pin the reading is from.
+     * @param value The value of the reading.
+     * @return True if the pin feeds at least one channel, false if the reading was for an unknown pin.
+     * */
+    public boolean dispatch(int pin, double value) {
+        Target target = pin >= 0 && pin < PINS ? table[pin] : null;
+
+        if (target == null) {
+            unknown.incrementAndGet();
+            return false;
+        }
+
+        for (; target != null; target = target.next) {
+            target.sensor.setSensorValue(target.channel, value);
+        }
+
+        dispatched.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Gets the number of readings that were dispatched to at least one sensor.
+     * @return The number of dispatched readings.
+     * */
+    public long getDispatchedCount() {
+        return dispatched.get();
+    }
+
+    /**
+     * Gets the number of readings that arrived for a pin no sensor is subscribed to.
+     * @return The number of readings for unknown pins.
+     * */
+    public long getUnknownCount() {
+        return unknown.get();
+    }
+}
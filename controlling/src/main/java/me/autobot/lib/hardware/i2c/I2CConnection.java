@@ -1,13 +1,8 @@
 package me.autobot.lib.hardware.i2c;
 
-import com.pi4j.Pi4J;
-import com.pi4j.context.Context;
-import com.pi4j.io.i2c.I2C;
-import com.pi4j.io.i2c.I2CConfig;
-import com.pi4j.io.i2c.I2CProvider;
 import me.autobot.lib.hardware.Connection;
 
-import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * Creates a connection to an I2C device.
@@ -37,11 +32,26 @@ public class I2CConnection extends Connection {
         connectionsDisabled = true;
     }
 
-    private Context context;
-    private I2CProvider provider;
+    private static I2CDeviceProvider provider = new Pi4JI2CProvider();
 
-    private I2CConfig config;
-    private I2C device;
+    /**
+     * Sets the provider that opens the I2C devices, e.g. a mock for testing or benchmarking without hardware.
+     * Only affects connections created afterwards.
+     * @param provider The provider to use.
+     * */
+    public static void setProvider(I2CDeviceProvider provider) {
+        I2CConnection.provider = provider;
+    }
+
+    /**
+     * Gets the provider that opens the I2C devices.
+     * @return The provider that is used.
+     * */
+    public static I2CDeviceProvider getProvider() {
+        return provider;
+    }
+
+    private I2CDevice device;
 
     private int deviceAddress;
 
@@ -54,20 +64,22 @@ public class I2CConnection extends Connection {
      *           This is used to identify the device in the Pi4J context.
      * @param bus The bus of the I2C device.
      * @param device The device of the I2C device.
+     *               If it can't be opened (e.g. there is no I2C bus), the error is reported and the connection reads and writes nothing.
      * */
     public I2CConnection(String id, int bus, int device) {
-        if (connectionsDisabled) {
-            context = Pi4J.newAutoContext();
-            provider = context.provider("linuxfs-i2c");
-            config = I2C.newConfigBuilder(context)
-                    .id(id)
-                    .bus(bus)
-                    .device(device)
-                    .build();
-            this.device = provider.create(config);
-
-            this.deviceAddress = device;
-            this.bus = bus;
+        this.deviceAddress = device;
+        this.bus = bus;
+
+        if (!connectionsDisabled) {
+            try {
+                this.device = provider.open(id, bus, device);
+            } catch (Exception e) {
+                if (i2cVerboseLevel == 2) {
+                    e.printStackTrace();
+                } else if (i2cVerboseLevel == 1) {
+                    System.out.println("Error opening I2C device");
+                }
+            }
         }
     }
 
@@ -76,7 +88,7 @@ public class I2CConnection extends Connection {
      * @param data The data to write to the I2C device.
      * */
     public void write(byte[] data) {
-        if (connectionsDisabled) return;
+        if (connectionsDisabled || device == null) return;
 
         try {
             device.write(data);
@@ -97,9 +109,41 @@ public class I2CConnection extends Connection {
     public byte[] read(int length) {
         if (connectionsDisabled) return new byte[0];
 
-        ByteBuffer buff = device.readByteBuffer(length);
+        byte[] data = new byte[length];
+        int read = read(data, 0, length);
+
+        return read == length ? data : Arrays.copyOf(data, Math.max(read, 0));
+    }
+
+    /**
+     * Reads data from the I2C device into a buffer, without allocating.
+     * @param buffer The buffer to read into.
+     * @param offset The index in the buffer to start at.
+     * @param length The number of bytes to read.
+     * @return The number of bytes read, 0 if nothing could be read.
+     * */
+    public int read(byte[] buffer, int offset, int length) {
+        if (connectionsDisabled || device == null) return 0;
+
+        try {
+            return Math.max(device.read(buffer, offset, length), 0);
+        } catch (Exception e) {
+            if (i2cVerboseLevel == 2) {
+                e.printStackTrace();
+            } else if (i2cVerboseLevel == 1) {
+                System.out.println("Error reading from I2C device");
+            }
+
+            return 0;
+        }
+    }
 
-        return buff.array();
+    /**
+     * Checks if connections are disabled.
+     * @return Whether all I2C connections are disabled.
+     * */
+    public static boolean connectionsDisabled() {
+        return connectionsDisabled;
     }
 
     /**
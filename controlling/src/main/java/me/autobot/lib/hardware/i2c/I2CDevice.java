@@ -0,0 +1,31 @@
+package me.autobot.lib.hardware.i2c;
+
+/**
+ * A device on an I2C bus, as opened by an {@link I2CDeviceProvider}.
+ * <p>
+ * This is the only part of the I2C layer that talks to the hardware, so everything above it (connections, readers)
+ * can be run and benchmarked against a mock device without a Pi.
+ * */
+public interface I2CDevice extends AutoCloseable {
+    /**
+     * Writes data to the device in one transaction.
+     * @param data The data to write.
+     * @return The number of bytes written.
+     * */
+    int write(byte[] data);
+
+    /**
+     * Reads data from the device in one transaction.
+     * @param buffer The buffer to read into.
+     * @param offset The index in the buffer to start at.
+     * @param length The number of bytes to read.
+     * @return The number of bytes read.
+     * */
+    int read(byte[] buffer, int offset, int length);
+
+    /**
+     * Closes the device.
+     * */
+    @Override
+    void close();
+}
@@ -0,0 +1,27 @@
+package me.autobot.lib.hardware.i2c;
+
+/**
+ * Opens the I2C devices that {@link I2CConnection}s talk to.
+ * The default provider uses Pi4J (see {@link Pi4JI2CProvider}), and can be replaced with {@link I2CConnection#setProvider(I2CDeviceProvider)},
+ * e.g. with a mock for testing or benchmarking without hardware.
+ * */
+public interface I2CDeviceProvider {
+    /**
+     * Opens a device on a bus.
+     * @param id The ID of the device, can be any string.
+     * @param bus The bus of the device.
+     * @param device The address of the device.
+     * @return The opened device.
+     * */
+    I2CDevice open(String id, int bus, int device);
+
+    /**
+     * Watches a GPIO pin that a device raises when it has data ready to be read.
+     * @param pin The GPIO pin (BCM numbering).
+     * @param onReady Called whenever the pin goes high.
+     * @return True if the pin is being watched, false if the provider doesn't support data ready pins.
+     * */
+    default boolean watchDataReady(int pin, Runnable onReady) {
+        return false;
+    }
+}
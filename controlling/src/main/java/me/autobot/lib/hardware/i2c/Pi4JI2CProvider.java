@@ -0,0 +1,105 @@
+package me.autobot.lib.hardware.i2c;
+
+import com.pi4j.Pi4J;
+import com.pi4j.context.Context;
+import com.pi4j.io.gpio.digital.DigitalInput;
+import com.pi4j.io.gpio.digital.DigitalState;
+import com.pi4j.io.gpio.digital.PullResistance;
+import com.pi4j.io.i2c.I2C;
+import com.pi4j.io.i2c.I2CConfig;
+import com.pi4j.io.i2c.I2CProvider;
+
+/**
+ * Opens I2C devices with Pi4J (the linuxfs provider), and watches data ready pins with pigpio.
+ * All of the devices share one Pi4J context, which is created the first time a device is opened.
+ * */
+public class Pi4JI2CProvider implements I2CDeviceProvider {
+    private Context context;
+
+    /**
+     * Creates a new Pi4J provider. The Pi4J context isn't created until it's needed.
+     * */
+    public Pi4JI2CProvider() {
+
+    }
+
+    /**
+     * Gets the Pi4J context, creating it if needed.
+     * @return The Pi4J context.
+     * */
+    private synchronized Context getContext() {
+        if (context == null) {
+            context = Pi4J.newAutoContext();
+        }
+
+        return context;
+    }
+
+    /**
+     * Opens a device on a bus with the linuxfs I2C provider.
+     * @param id The ID of the device in the Pi4J context.
+     * @param bus The bus of the device.
+     * @param device The address of the device.
+     * @return The opened device.
+     * */
+    @Override
+    public I2CDevice open(String id, int bus, int device) {
+        Context context = getContext();
+
+        I2CProvider provider = context.provider("linuxfs-i2c");
+        I2CConfig config = I2C.newConfigBuilder(context)
+                .id(id)
+                .bus(bus)
+                .device(device)
+                .build();
+
+        I2C i2c = provider.create(config);
+
+        return new I2CDevice() {
+            @Override
+            public int write(byte[] data) {
+                return i2c.write(data);
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) {
+                return i2c.read(buffer, offset, length);
+            }
+
+            @Override
+            public void close() {
+                i2c.close();
+            }
+        };
+    }
+
+    /**
+     * Watches a data ready pin with the pigpio digital input provider.
+     * @param pin The GPIO pin (BCM numbering).
+     * @param onReady Called whenever the pin goes high.
+     * @return True if the pin is being watched, false if it couldn't be set up.
+     * */
+    @Override
+    public boolean watchDataReady(int pin, Runnable onReady) {
+        try {
+            Context context = getContext();
+
+            DigitalInput input = context.create(DigitalInput.newConfigBuilder(context)
+                    .id("data-ready-" + pin)
+                    .address(pin)
+                    .pull(PullResistance.PULL_DOWN)
+                    .provider("pigpio-digital-input"));
+
+            input.addListener((event) -> {
+                if (event.state() == DigitalState.HIGH) {
+                    onReady.run();
+                }
+            });
+
+            return true;
+        } catch (Exception e) {
+            System.out.println("[WARNING] Could not watch data ready pin " + pin + ": " + e.getMessage());
+            return false;
+        }
+    }
+}
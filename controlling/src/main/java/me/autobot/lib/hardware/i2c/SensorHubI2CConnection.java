@@ -1,10 +1,11 @@
 package me.autobot.lib.hardware.i2c;
 
-import me.autobot.lib.math.Mathf;
+import me.autobot.lib.hardware.PinTable;
 import me.autobot.lib.robot.Sensor;
 
 import java.nio.ByteBuffer;
 import java.util.HashMap;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * I2C connection to the <a href="https://github.com/JaidenAGrimminck/bot/blob/main/controlling/arduino-scripts/readwriter/readwriter.ino">configurable Arduino code</a> that's prebuilt for this library.
@@ -16,11 +17,26 @@ public class SensorHubI2CConnection extends I2CConnection {
     public static final int DEFAULT_BUS = 1;
 
     /**
-     * How often to request data from the Arduino.
+     * The longest time between requests for data from the Arduino, when it has had nothing to send for a while.
      * This is in milliseconds.
      * */
     public static final int REQUEST_TIMING = 20;
 
+    /**
+     * The shortest time between requests for data from the Arduino, while it has data to send.
+     * This is in milliseconds.
+     * */
+    public static final int MIN_REQUEST_TIMING = 2;
+
+    /**
+     * The number of bytes the Arduino sends per request.
+     * A request can hold more than one pin frame, and frames can be split across requests.
+     * */
+    public static final int READ_SIZE = 16;
+
+    // a pin frame: 0xA1/0xA3, the pin, the value (4 bytes) and the device signature
+    private static final int FRAME_SIZE = 3 + Float.BYTES;
+
     /**
      * The value of "HIGH" in the Arduino.
      * */
@@ -61,7 +77,20 @@ public class SensorHubI2CConnection extends I2CConnection {
         }
     }
 
-    private HashMap<int[], Sensor> subscribedSensors = new HashMap<>();
+    // pin -> the sensor channels it feeds
+    private final PinTable subscribedPins = new PinTable();
+
+    // the single reader of this bus/device
+    private Thread readThread;
+    private volatile boolean dataReadyPin = false;
+
+    // bytes read but not parsed yet (the start of a frame that was split across requests)
+    private final byte[] pending = new byte[READ_SIZE + FRAME_SIZE];
+    private int pendingLength = 0;
+
+    private volatile long reads = 0;
+    private volatile long emptyReads = 0;
+    private volatile long framesRead = 0;
 
     /**
      * Creates a new I2C connection to the default Arduino code with the given bus and device address.
@@ -79,7 +108,7 @@ public class SensorHubI2CConnection extends I2CConnection {
      * @param pins The pins to subscribe the sensor to.
      * */
     public void subscribeSensor(Sensor sensor, int... pins) {
-        subscribedSensors.put(Mathf.allPos(pins), sensor);
+        subscribedPins.add(sensor, pins);
         for (int pin : pins) {
             subscribeToPin(pin);
         }
@@ -88,52 +117,161 @@ public class SensorHubI2CConnection extends I2CConnection {
     }
 
     /**
-     * Creates a new reading thread that reads data from the I2C device.
-     * This is a separate thread that runs in the background.
-     * @see Thread
-     * @see Runnable
-     * @see SensorHubI2CConnection#read(int)
-     * */
-    protected void setupReadThread() {
-        Thread thread = new Thread(
-                () -> {
-                    while (true) {
-                        byte[] data = read(16);
-                        if (data != null) {
-                            if (data[0] == (byte) 0xA1 || data[0] == (byte) 0xA3) {
-                                byte rpin = data[1];
-
-                                float value = ByteBuffer.wrap(data, 2, Float.BYTES).getFloat();
-                                byte deviceSignature = data[2 + Float.BYTES];
-
-                                //run a check to see if the device signature is the same as the device address, if not, ignore the data
-                                assert deviceSignature == getDeviceAddress() : "Device signature does not match device address.";
-
-                                int pin = Mathf.allPos(rpin);
-
-                                for (int[] pins : subscribedSensors.keySet()) {
-                                    int p_index = 0;
-                                    for (int p : pins) {
-                                        if (p == pin) {
-                                            subscribedSensors.get(pins).setSensorValue(p_index, value);
-                                        }
-
-                                        p_index++;
-                                    }
-                                }
-                            }
-                        }
-
-                        try {
-                            Thread.sleep(REQUEST_TIMING);
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                }
-        );
-
-        thread.start();
+     * Uses a GPIO pin that the Arduino raises when it has data, instead of polling it.
+     * The reader then only requests data after the pin goes high (and at least every {@link #REQUEST_TIMING} ms, in case an edge is missed).
+     * If the provider can't watch the pin, the connection keeps polling.
+     * @param pin The GPIO pin (BCM numbering).
+     * @return This object.
+     * */
+    public SensorHubI2CConnection useDataReadyPin(int pin) {
+        dataReadyPin = getProvider().watchDataReady(pin, this::onDataReady);
+
+        if (!dataReadyPin) {
+            System.out.println("[WARNING] Data ready pin " + pin + " is not available, polling " + generateId(getBus(), getDeviceAddress()) + " instead.");
+        }
+
+        return this;
+    }
+
+    /**
+     * Called when the data ready pin goes high, wakes the reader up.
+     * */
+    private void onDataReady() {
+        Thread thread = readThread;
+
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Starts the reading thread of this bus/device, if it isn't running yet.
+     * There is only ever one reader per connection, however many sensors are subscribed.
+     * <p>
+     * Without a data ready pin, the reader backs off while the Arduino has nothing to send:
+     * the time between requests doubles after every empty read, from {@link #MIN_REQUEST_TIMING} up to {@link #REQUEST_TIMING},
+     * and goes back to the minimum as soon as data comes in.
+     * @see SensorHubI2CConnection#read(byte[], int, int)
+     * */
+    protected synchronized void setupReadThread() {
+        if (readThread != null || connectionsDisabled()) {
+            return;
+        }
+
+        readThread = new Thread(this::readLoop, "i2c-reader-" + getBus() + "-" + getDeviceAddress());
+        readThread.setDaemon(true);
+        readThread.start();
+    }
+
+    /**
+     * Reads from the Arduino until the program exits.
+     * */
+    private void readLoop() {
+        long interval = MIN_REQUEST_TIMING;
+
+        while (true) {
+            int frames = readOnce();
+
+            if (frames > 0) {
+                interval = MIN_REQUEST_TIMING;
+
+                // there may be more waiting, so ask again right away
+                continue;
+            }
+
+            if (dataReadyPin) {
+                LockSupport.parkNanos(REQUEST_TIMING * 1_000_000L);
+            } else {
+                LockSupport.parkNanos(interval * 1_000_000L);
+                interval = Math.min(interval * 2, REQUEST_TIMING);
+            }
+        }
+    }
+
+    /**
+     * Requests one batch of data from the Arduino, and dispatches every whole pin frame in it.
+     * Frames that are split across requests are kept until the rest arrives, so this is only called by the reader thread.
+     * @return The number of pin frames that were read.
+     * */
+    private int readOnce() {
+        int read = read(pending, pendingLength, READ_SIZE);
+
+        reads++;
+
+        if (read <= 0) {
+            emptyReads++;
+            return 0;
+        }
+
+        int length = pendingLength + read;
+        int at = 0;
+        int frames = 0;
+
+        while (at < length) {
+            int type = pending[at] & 0xFF;
+
+            if (type != 0xA1 && type != 0xA3) {
+                // padding (the Arduino fills the rest of a request with 0s) or noise
+                at++;
+                continue;
+            }
+
+            if (length - at < FRAME_SIZE) {
+                // the rest of the frame is in the next request
+                break;
+            }
+
+            int pin = pending[at + 1] & 0xFF;
+            int bits = (pending[at + 2] & 0xFF) << 24 | (pending[at + 3] & 0xFF) << 16 | (pending[at + 4] & 0xFF) << 8 | (pending[at + 5] & 0xFF);
+
+            subscribedPins.dispatch(pin, Float.intBitsToFloat(bits));
+
+            at += FRAME_SIZE;
+            frames++;
+        }
+
+        pendingLength = length - at;
+        System.arraycopy(pending, at, pending, 0, pendingLength);
+
+        if (frames == 0) {
+            emptyReads++;
+        } else {
+            framesRead += frames;
+        }
+
+        return frames;
+    }
+
+    /**
+     * Gets the number of requests made to the Arduino.
+     * @return The number of reads.
+     * */
+    public long getReads() {
+        return reads;
+    }
+
+    /**
+     * Gets the number of requests that had no whole pin frame in them.
+     * @return The number of empty reads.
+     * */
+    public long getEmptyReads() {
+        return emptyReads;
+    }
+
+    /**
+     * Gets the number of pin frames that were read.
+     * @return The number of frames read.
+     * */
+    public long getFramesRead() {
+        return framesRead;
+    }
+
+    /**
+     * Gets the table of the pins the sensors are subscribed to, which also counts the readings for unknown pins.
+     * @return The pin table of the connection.
+     * */
+    public PinTable getSubscribedPins() {
+        return subscribedPins;
     }
 
     /**
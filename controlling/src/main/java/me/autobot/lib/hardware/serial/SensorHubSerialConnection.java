@@ -1,11 +1,13 @@
 package me.autobot.lib.hardware.serial;
 
-import me.autobot.lib.math.Mathf;
+import me.autobot.lib.hardware.PinTable;
 import me.autobot.lib.robot.Sensor;
 import me.autobot.lib.hardware.i2c.SensorHubI2CConnection;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Connects to the serial port of the sensor hub.
@@ -18,6 +20,16 @@ public class SensorHubSerialConnection extends SerialConnection {
     // A list of the connections that have been made, indexed by the device address
     private static HashMap<String, SensorHubSerialConnection> connections = new HashMap<>();
 
+    /**
+     * Sends the pin writes queued on every connection, each as one batch.
+     * This is called at the end of every robot tick.
+     * */
+    public static void flushAll() {
+        for (SensorHubSerialConnection connection : connections.values()) {
+            connection.flush();
+        }
+    }
+
     /**
      * Gets or creates a connection to the serial device with the given ID, bus, and device.
      * @param baudRate The baud rate of the serial connection.
@@ -34,7 +46,33 @@ public class SensorHubSerialConnection extends SerialConnection {
         }
     }
 
-    private HashMap<int[], Sensor> subscribedSensors = new HashMap<>();
+    // pin -> the sensor channels it feeds
+    private final PinTable subscribedPins = new PinTable();
+
+    private final SerialFrameDecoder decoder = new SerialFrameDecoder(subscribedPins::dispatch);
+
+    // the size of a single pin write: 0xA2, the pin, the value (4 bytes) and the signature
+    private static final int PIN_WRITE_SIZE = 3 + Float.BYTES;
+
+    // pin writes queued during the current tick, all guarded by this
+    private final int[] queuedValues = new int[PinTable.PINS];
+    private final boolean[] queued = new boolean[PinTable.PINS];
+    private final int[] queueOrder = new int[PinTable.PINS];
+    private int queueSize = 0;
+
+    // the last value written to each pin, so unchanged values aren't sent again
+    private final int[] sentValues = new int[PinTable.PINS];
+    private final boolean[] sent = new boolean[PinTable.PINS];
+
+    // unchanged values are still re-sent this often, in case a write was lost or the hub reset (there are no acknowledgements)
+    private static final long REFRESH_INTERVAL = TimeUnit.MILLISECONDS.toNanos(250);
+    private long lastRefresh = System.nanoTime();
+
+    private final byte[] batch = new byte[PinTable.PINS * PIN_WRITE_SIZE];
+
+    private long batchesSent = 0;
+    private long writesSent = 0;
+    private long writesSkipped = 0;
 
     /**
      * Creates a new serial connection with the given baud rate and comm port.
@@ -86,16 +124,33 @@ public class SensorHubSerialConnection extends SerialConnection {
      * @param pins The pins to subscribe the sensor to.
      * */
     public void subscribeSensor(Sensor sensor, int... pins) {
-        subscribedSensors.put(Mathf.allPos(pins), sensor);
+        subscribedPins.add(sensor, pins);
         for (int pin : pins) {
             subscribeToPin(pin);
         }
     }
 
+    /**
+     * Gets the table of the pins the sensors are subscribed to, which also counts the readings for unknown pins.
+     * @return The pin table of the connection.
+     * */
+    public PinTable getSubscribedPins() {
+        return subscribedPins;
+    }
+
+    /**
+     * Gets the decoder of the binary frames, which keeps count of the good, bad and dropped frames.
+     * @return The frame decoder of the connection.
+     * */
+    public SerialFrameDecoder getDecoder() {
+        return decoder;
+    }
+
     private boolean adjForDistance = false;
 
     /**
-     * Temporary fix for the distance sensor. Will be removed later.
+     * Temporary fix for the distance sensor: switches the connection from binary frames (see {@link SerialFrameDecoder})
+     * to the old ASCII format ("pin value pin value ... ."). Will be removed later.
      * @return This object.
      * */
     public SensorHubSerialConnection adj() {
@@ -112,7 +167,10 @@ public class SensorHubSerialConnection extends SerialConnection {
      * */
     @Override
     protected void onSerialData(byte[] data) {
-        if (!adjForDistance) return;
+        if (!adjForDistance) {
+            decoder.decode(data);
+            return;
+        }
 
         //temp fix, make more reliable later. seems like if an error is called, it doesn't report to main thread.
 
@@ -140,16 +198,7 @@ public class SensorHubSerialConnection extends SerialConnection {
             int pin = Integer.parseInt(parts[i]);
             float value = Float.parseFloat(parts[i + 1]);
 
-            for (int[] pins : subscribedSensors.keySet()) {
-                int p_index = 0;
-                for (int p : pins) {
-                    if (p == pin) {
-                        subscribedSensors.get(pins).setSensorValue(p_index, value);
-                    }
-
-                    p_index++;
-                }
-            }
+            subscribedPins.dispatch(pin, value);
         }
 
 
@@ -179,6 +228,136 @@ public class SensorHubSerialConnection extends SerialConnection {
 //        System.out.println(data);
     }
 
+    /**
+     * Queues a value to be written to a pin at the end of the tick (see {@link #flush()}).
+     * If the pin already has a value queued, it is replaced, keeping its place in the batch.
+     * @param index The index of the pin to write to.
+     * @param value The value to write to the pin.
+     * */
+    public void queueWriteToPin(int index, float value) {
+        queueWriteToPin(index, Float.floatToRawIntBits(value));
+    }
+
+    /**
+     * Queues a byte list to be written to a pin at the end of the tick (see {@link #flush()}). Should be 4 bytes long (a float!)
+     * @param index The index of the pin to write to.
+     * @param value The byte list (length=4) to write to the pin.
+     * */
+    public void queueWriteToPin(int index, byte[] value) {
+        if (value.length != Float.BYTES) {
+            return;
+        }
+
+        queueWriteToPin(index, (value[0] & 0xFF) << 24 | (value[1] & 0xFF) << 16 | (value[2] & 0xFF) << 8 | (value[3] & 0xFF));
+    }
+
+    /**
+     * Queues the raw bits of a value to be written to a pin at the end of the tick.
+     * @param index The index of the pin to write to.
+     * @param bits The bits of the value, as they are sent (big-endian).
+     * */
+    private synchronized void queueWriteToPin(int index, int bits) {
+        int pin = index & 0xFF;
+
+        if (!queued[pin]) {
+            queued[pin] = true;
+            queueOrder[queueSize++] = pin;
+        }
+
+        queuedValues[pin] = bits;
+    }
+
+    /**
+     * Sends every queued pin write whose value changed since it was last sent, as one write to the serial port.
+     * Every 250 ms (and after the port is reopened), every queued write is sent, even if the value didn't change.
+     * */
+    public synchronized void flush() {
+        if (queueSize == 0) {
+            return;
+        }
+
+        boolean reopened = !isOpen();
+
+        // if the port isn't open, keep the writes queued for the next flush
+        if (!open()) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        boolean refresh = now - lastRefresh >= REFRESH_INTERVAL;
+
+        if (reopened) {
+            // whatever was sent before might not have reached the hub
+            Arrays.fill(sent, false);
+        }
+
+        if (refresh) {
+            lastRefresh = now;
+        }
+
+        int length = 0;
+
+        for (int i = 0; i < queueSize; i++) {
+            int pin = queueOrder[i];
+            int bits = queuedValues[pin];
+
+            queued[pin] = false;
+
+            if (!refresh && sent[pin] && sentValues[pin] == bits) {
+                writesSkipped++;
+                continue;
+            }
+
+            sent[pin] = true;
+            sentValues[pin] = bits;
+
+            batch[length] = (byte) 0xA2;
+            batch[length + 1] = (byte) pin;
+            batch[length + 2] = (byte) (bits >>> 24);
+            batch[length + 3] = (byte) (bits >>> 16);
+            batch[length + 4] = (byte) (bits >>> 8);
+            batch[length + 5] = (byte) bits;
+            batch[length + 6] = (byte) THIS_DEVICE_ADDRESS;
+
+            length += PIN_WRITE_SIZE;
+        }
+
+        queueSize = 0;
+
+        if (length == 0) {
+            return;
+        }
+
+        write(batch, length);
+
+        batchesSent++;
+        writesSent += length / PIN_WRITE_SIZE;
+    }
+
+    /**
+     * Gets the number of batches of pin writes that were sent.
+     * @return The number of batches sent.
+     * */
+    public synchronized long getBatchesSent() {
+        return batchesSent;
+    }
+
+    /**
+     * Gets the number of queued pin writes that were sent.
+     * @return The number of pin writes sent.
+     * */
+    public synchronized long getWritesSent() {
+        return writesSent;
+    }
+
+    /**
+     * Gets the number of queued pin writes that were skipped because the pin already had the value.
+     * @return The number of pin writes skipped.
+     * */
+    public synchronized long getWritesSkipped() {
+        return writesSkipped;
+    }
+
     /**
      * Writes a value to a specific pin. The value is a float.
      * @param index The index of the pin to write to.
@@ -196,6 +375,8 @@ public class SensorHubSerialConnection extends SerialConnection {
         System.arraycopy(bbuf.array(), 0, payload, 2, Float.BYTES);
         payload[2 + Float.BYTES] = THIS_DEVICE_ADDRESS;
         write(payload);
+
+        forgetSent(index);
     }
 
     /**
@@ -215,5 +396,15 @@ public class SensorHubSerialConnection extends SerialConnection {
         System.arraycopy(value, 0, payload, 2, value.length);
         payload[2 + value.length] = THIS_DEVICE_ADDRESS;
         write(payload);
+
+        forgetSent(index);
+    }
+
+    /**
+     * Forgets the last value sent to a pin, after it was written to directly, so the next queued write is always sent.
+     * @param index The index of the pin.
+     * */
+    private synchronized void forgetSent(int index) {
+        sent[index & 0xFF] = false;
     }
 }
@@ -108,6 +108,19 @@ public class SerialConnection extends Connection {
         port.writeBytes(data, data.length);
     }
 
+    /**
+     * Writes the start of the given data to the serial port.
+     * @param data The data to write to the serial port.
+     * @param length The number of bytes to write, from the start of the data.
+     * */
+    protected void write(byte[] data, int length) {
+        if (connectionDisabled) {
+            return;
+        }
+
+        port.writeBytes(data, length);
+    }
+
     /**
      * Writes the given data to the serial port.
      * @param data The data to write to the serial port.
@@ -134,6 +147,18 @@ public class SerialConnection extends Connection {
         return port.openPort();
     }
 
+    /**
+     * Checks if the serial port is currently open, without trying to open it.
+     * @return True if the port is open, false otherwise.
+     * */
+    public boolean isOpen() {
+        if (connectionDisabled) {
+            return false;
+        }
+
+        return port.isOpen();
+    }
+
     /**
      * Gets the comm port of the serial connection.
      * @return The comm port of the serial connection.
@@ -0,0 +1,268 @@
+package me.autobot.lib.hardware.serial;
+
+/**
+ * A streaming decoder for the binary frames the sensor hub sends over serial.
+ * <p>
+ * A frame is:
+ * <ul>
+ *     <li>Two sync bytes, {@value #SYNC_1} and {@value #SYNC_2}.</li>
+ *     <li>One byte with the length of the payload, a multiple of {@value #VALUE_SIZE} (up to {@value #MAX_PAYLOAD}).</li>
+ *     <li>The payload: pin/value pairs, each the pin (1 byte) followed by the value (a big-endian float, 4 bytes).</li>
+ *     <li>The CRC-16/CCITT-FALSE of the length byte and the payload (2 bytes, big-endian).</li>
+ * </ul>
+ * Received bytes go into a fixed ring buffer, and whole frames are decoded straight from it, without allocating.
+ * Anything that isn't a valid frame (noise, a cut off frame, a bad CRC) is skipped one byte at a time until the next sync bytes,
+ * so the decoder re-syncs on its own after corruption.
+ * */
+public class SerialFrameDecoder {
+    /**
+     * Receives the values of the decoded frames.
+     * */
+    public interface Listener {
+        /**
+         * Called for every pin/value pair of a valid frame.
+         * @param pin The pin (0 to 255).
+         * @param value The value of the pin.
+         * */
+        void onValue(int pin, float value);
+    }
+
+    /**
+     * The first sync byte of a frame.
+     * */
+    public static final int SYNC_1 = 0xAA;
+
+    /**
+     * The second sync byte of a frame.
+     * */
+    public static final int SYNC_2 = 0x55;
+
+    /**
+     * The size of a pin/value pair in the payload.
+     * */
+    public static final int VALUE_SIZE = 1 + Float.BYTES;
+
+    /**
+     * The largest payload a frame can have (50 pin/value pairs).
+     * */
+    public static final int MAX_PAYLOAD = 50 * VALUE_SIZE;
+
+    // sync bytes + length + CRC
+    private static final int OVERHEAD = 3 + 2;
+
+    // a power of two, big enough for a few frames
+    private static final int CAPACITY = 1024;
+    private static final int MASK = CAPACITY - 1;
+
+    private static final int CRC_INITIAL = 0xFFFF;
+
+    private final Listener listener;
+
+    private final byte[] ring = new byte[CAPACITY];
+
+    // both only ever go up, the index in the ring is the position & MASK
+    private long head = 0;
+    private long tail = 0;
+
+    private long goodFrames = 0;
+    private long badFrames = 0;
+    private long droppedFrames = 0;
+    private long skippedBytes = 0;
+
+    /**
+     * Creates a new decoder.
+     * @param listener The listener to send the values of decoded frames to.
+     * */
+    public SerialFrameDecoder(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Adds received bytes and decodes every whole frame in the buffer.
+     * @param data The received bytes.
+     * */
+    public void decode(byte[] data) {
+        decode(data, 0, data.length);
+    }
+
+    /**
+     * Adds received bytes and decodes every whole frame in the buffer.
+     * If the bytes don't fit, the oldest bytes in the buffer are thrown away (and counted as a dropped frame).
+     * @param data The received bytes.
+     * @param offset The index of the first byte to add.
+     * @param length The number of bytes to add.
+     * */
+    public synchronized void decode(byte[] data, int offset, int length) {
+        while (length > 0) {
+            int free = CAPACITY - (int) (head - tail);
+
+            if (free == 0) {
+                // nothing in the buffer could be decoded and it's full, so throw it away
+                tail = head;
+                droppedFrames++;
+                free = CAPACITY;
+            }
+
+            int count = Math.min(length, free);
+
+            for (int i = 0; i < count; i++) {
+                ring[(int) (head++ & MASK)] = data[offset + i];
+            }
+
+            offset += count;
+            length -= count;
+
+            parse();
+        }
+    }
+
+    /**
+     * Decodes every whole frame in the buffer, skipping anything that isn't a frame.
+     * */
+    private void parse() {
+        while (head - tail >= 3) {
+            if (at(0) != SYNC_1 || at(1) != SYNC_2) {
+                tail++;
+                skippedBytes++;
+                continue;
+            }
+
+            int length = at(2);
+
+            if (length == 0 || length % VALUE_SIZE != 0 || length > MAX_PAYLOAD) {
+                // not a real frame (or a corrupted length), look for the next sync bytes
+                tail++;
+                skippedBytes++;
+                badFrames++;
+                continue;
+            }
+
+            if (head - tail < OVERHEAD + length) {
+                // wait for the rest of the frame
+                return;
+            }
+
+            int crc = crc(CRC_INITIAL, length);
+
+            for (int i = 0; i < length; i++) {
+                crc = crc(crc, at(3 + i));
+            }
+
+            int expected = at(3 + length) << 8 | at(4 + length);
+
+            if (crc != expected) {
+                tail++;
+                skippedBytes++;
+                badFrames++;
+                continue;
+            }
+
+            for (int i = 3; i < 3 + length; i += VALUE_SIZE) {
+                int bits = at(i + 1) << 24 | at(i + 2) << 16 | at(i + 3) << 8 | at(i + 4);
+
+                listener.onValue(at(i), Float.intBitsToFloat(bits));
+            }
+
+            tail += OVERHEAD + length;
+            goodFrames++;
+        }
+    }
+
+    /**
+     * Gets a byte from the buffer.
+     * @param index The index of the byte, from the tail of the buffer.
+     * @return The byte, from 0 to 255.
+     * */
+    private int at(int index) {
+        return ring[(int) ((tail + index) & MASK)] & 0xFF;
+    }
+
+    /**
+     * Adds a byte to a CRC-16/CCITT-FALSE.
+     * @param crc The CRC so far.
+     * @param b The byte to add, from 0 to 255.
+     * @return The new CRC.
+     * */
+    private static int crc(int crc, int b) {
+        crc ^= b << 8;
+
+        for (int bit = 0; bit < 8; bit++) {
+            crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+        }
+
+        return crc & 0xFFFF;
+    }
+
+    /**
+     * Encodes pin/value pairs into a frame, e.g. for simulating the sensor hub.
+     * @param pins The pins.
+     * @param values The values of the pins.
+     * @return The encoded frame.
+     * */
+    public static byte[] encode(int[] pins, float[] values) {
+        if (pins.length != values.length || pins.length == 0 || pins.length * VALUE_SIZE > MAX_PAYLOAD) {
+            throw new IllegalArgumentException("A frame must have between 1 and " + (MAX_PAYLOAD / VALUE_SIZE) + " pins, with a value for each.");
+        }
+
+        int length = pins.length * VALUE_SIZE;
+        byte[] frame = new byte[OVERHEAD + length];
+
+        frame[0] = (byte) SYNC_1;
+        frame[1] = (byte) SYNC_2;
+        frame[2] = (byte) length;
+
+        for (int i = 0; i < pins.length; i++) {
+            int bits = Float.floatToIntBits(values[i]);
+            int at = 3 + i * VALUE_SIZE;
+
+            frame[at] = (byte) pins[i];
+            frame[at + 1] = (byte) (bits >>> 24);
+            frame[at + 2] = (byte) (bits >>> 16);
+            frame[at + 3] = (byte) (bits >>> 8);
+            frame[at + 4] = (byte) bits;
+        }
+
+        int crc = CRC_INITIAL;
+
+        for (int i = 2; i < 3 + length; i++) {
+            crc = crc(crc, frame[i] & 0xFF);
+        }
+
+        frame[3 + length] = (byte) (crc >>> 8);
+        frame[4 + length] = (byte) crc;
+
+        return frame;
+    }
+
+    /**
+     * Gets the number of frames that were decoded.
+     * @return The number of good frames.
+     * */
+    public synchronized long getGoodFrames() {
+        return goodFrames;
+    }
+
+    /**
+     * Gets the number of frames that were thrown away because of a bad length or CRC.
+     * @return The number of bad frames.
+     * */
+    public synchronized long getBadFrames() {
+        return badFrames;
+    }
+
+    /**
+     * Gets the number of times the buffer overflowed and its unread bytes were thrown away.
+     * @return The number of dropped frames.
+     * */
+    public synchronized long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * Gets the number of bytes that were skipped while looking for the start of a frame.
+     * @return The number of skipped bytes.
+     * */
+    public synchronized long getSkippedBytes() {
+        return skippedBytes;
+    }
+}
@@ -41,6 +41,24 @@ public class WSSensorConnection extends Connection {
         // read data from the websockets
     }
 
+    /**
+     * Called when the websocket connection is updated, with the raw bytes of the update.
+     * By default, this converts the bytes to integers and calls {@link #onUpdate(int[])}.
+     * Connections that decode binary data can override this instead, to read the bytes directly without the conversion.
+     * @param data The array the update is in (don't keep it, it may be reused after this returns).
+     * @param offset The index of the first byte of the update.
+     * @param length The number of bytes in the update.
+     * */
+    public void onUpdate(byte[] data, int offset, int length) {
+        int[] values = new int[length];
+
+        for (int i = 0; i < length; i++) {
+            values[i] = data[offset + i] & 0xFF;
+        }
+
+        onUpdate(values);
+    }
+
     /**
      * Gets the WS ID of the sensor connection.
      * @return The WS ID of the sensor connection
@@ -4,16 +4,62 @@ package me.autobot.lib.math;
  * Used to keep track of time.
  * */
 public class Clock {
+    // when replaying a capture, time is driven by the replay instead of the wall clock, so runs are deterministic
+    private static volatile boolean virtual = false;
+    private static volatile long virtualTime = 0;
+
     private long startTime;
     private long lastTriggeredTime;
     private boolean paused = false;
     private long pauseStartTime = 0;
 
+    /**
+     * Gets the current time, from the virtual clock if it is in use, otherwise from the wall clock.
+     * @return The current time in milliseconds.
+     * */
+    public static long now() {
+        if (virtual) {
+            return virtualTime;
+        }
+
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Switches all clocks to virtual time, which only moves when {@link #advance(long)} is called.
+     * Clocks created before the switch keep their start time, so this should be called before any robot is created.
+     * @param time The time to start the virtual clock at, in milliseconds.
+     * */
+    public static void useVirtualTime(long time) {
+        virtualTime = time;
+        virtual = true;
+    }
+
+    /**
+     * Checks if the clocks are using virtual time.
+     * @return Whether the clocks are using virtual time.
+     * */
+    public static boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * Moves the virtual clock forward.
+     * @param time The time to move forward by, in milliseconds.
+     * */
+    public static void advance(long time) {
+        if (!virtual) {
+            throw new IllegalStateException("Cannot advance the clock when virtual time is not in use.");
+        }
+
+        virtualTime += time;
+    }
+
     /**
      * Creates a new clock object.
      * */
     public Clock() {
-        startTime = System.currentTimeMillis();
+        startTime = now();
     }
 
     /**
@@ -25,7 +71,7 @@ public class Clock {
             return pauseStartTime - startTime;
         }
 
-        return System.currentTimeMillis() - startTime;
+        return now() - startTime;
     }
 
     /**
@@ -58,10 +104,10 @@ public class Clock {
     public void setPaused(boolean paused) {
         this.paused = paused;
         if (paused) {
-            pauseStartTime = System.currentTimeMillis();
+            pauseStartTime = now();
         } else {
-            startTime += System.currentTimeMillis() - pauseStartTime;
-            lastTriggeredTime += System.currentTimeMillis() - pauseStartTime;
+            startTime += now() - pauseStartTime;
+            lastTriggeredTime += now() - pauseStartTime;
 
             pauseStartTime = 0;
         }
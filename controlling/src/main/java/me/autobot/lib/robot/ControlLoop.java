@@ -0,0 +1,248 @@
+package me.autobot.lib.robot;
+
+import me.autobot.lib.server.topica.Topica;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A dedicated, high priority thread that runs a task at a fixed rate.
+ * <p>
+ * Every iteration is scheduled against a deadline from {@link System#nanoTime()}, so a long iteration doesn't push back the ones after it
+ * (unlike {@link java.util.Timer#schedule(java.util.TimerTask, long, long)}, which drifts).
+ * If an iteration runs past one or more deadlines, it counts as an overrun and the missed iterations are skipped instead of run back to back.
+ * Changing the period takes effect immediately, from the start of the current iteration.
+ * <p>
+ * The loop publishes its timing to Topica (in ms unless noted):
+ * <ul>
+ *     <li>{@code /robot/loop/period}: the period of the loop.</li>
+ *     <li>{@code /robot/loop/execution}: how long the last iteration took to run.</li>
+ *     <li>{@code /robot/loop/jitter}: how late the last iteration started compared to its deadline.</li>
+ *     <li>{@code /robot/loop/overruns}: the number of iterations that ran past the next deadline.</li>
+ *     <li>{@code /robot/loop/iterations}: the number of iterations run.</li>
+ *     <li>{@code /robot/loop/jitter_histogram}: the number of iterations in each jitter bucket (see {@link #JITTER_BUCKETS}), as big-endian longs, published about once a second.</li>
+ * </ul>
+ * */
+public class ControlLoop {
+    /**
+     * The upper bounds (exclusive) of the jitter histogram buckets, in µs. The last bucket is everything above the last bound.
+     * */
+    public static final long[] JITTER_BUCKETS = { 50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000 };
+
+    /**
+     * The path the loop timing topics are published under.
+     * */
+    public static final String TOPIC_PATH = "/robot/loop";
+
+    // how often the histogram is published, in ns
+    private static final long HISTOGRAM_INTERVAL = 1_000_000_000L;
+
+    private final Runnable task;
+    private final Thread thread;
+
+    private volatile long period;
+    private volatile boolean running = false;
+
+    private final Topica.Database.Topic periodTopic;
+    private final Topica.Database.Topic executionTopic;
+    private final Topica.Database.Topic jitterTopic;
+    private final Topica.Database.Topic overrunsTopic;
+    private final Topica.Database.Topic iterationsTopic;
+    private final Topica.Database.Topic histogramTopic;
+
+    // only written by the loop thread
+    private final long[] histogram = new long[JITTER_BUCKETS.length + 1];
+    private final byte[] histogramData = new byte[histogram.length * Long.BYTES];
+    private volatile long overruns = 0;
+    private volatile long iterations = 0;
+
+    /**
+     * Creates a new control loop. The loop isn't started until {@link #start()} is called.
+     * @param name The name of the thread.
+     * @param task The task to run every iteration.
+     * @param period The time between the start of each iteration, in ms.
+     * */
+    public ControlLoop(String name, Runnable task, long period) {
+        this.task = task;
+        this.period = toNanos(period);
+
+        periodTopic = Topica.topic(TOPIC_PATH + "/period", Topica.LONG_TYPE);
+        executionTopic = Topica.topic(TOPIC_PATH + "/execution", Topica.DOUBLE_TYPE);
+        jitterTopic = Topica.topic(TOPIC_PATH + "/jitter", Topica.DOUBLE_TYPE);
+        overrunsTopic = Topica.topic(TOPIC_PATH + "/overruns", Topica.LONG_TYPE);
+        iterationsTopic = Topica.topic(TOPIC_PATH + "/iterations", Topica.LONG_TYPE);
+        histogramTopic = Topica.topic(TOPIC_PATH + "/jitter_histogram", Topica.CUSTOM_TYPE);
+
+        periodTopic.update(period);
+
+        thread = new Thread(this::run, name);
+        thread.setPriority(Thread.MAX_PRIORITY);
+    }
+
+    /**
+     * Starts the loop. The first iteration runs one period after this is called.
+     * */
+    public void start() {
+        if (running) {
+            return;
+        }
+
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * Stops the loop after the current iteration (if any). The loop cannot be restarted.
+     * */
+    public void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Checks if the loop is running.
+     * @return Whether the loop is running.
+     * */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Sets the time between the start of each iteration. This takes effect immediately:
+     * the next iteration is rescheduled to one new period after the start of the current one.
+     * @param period The period of the loop, in ms.
+     * */
+    public void setPeriod(long period) {
+        this.period = toNanos(period);
+        periodTopic.update(period);
+
+        // wake the loop up so it can recalculate its deadline
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Gets the time between the start of each iteration.
+     * @return The period of the loop, in ms.
+     * */
+    public long getPeriod() {
+        return period / 1_000_000;
+    }
+
+    /**
+     * Gets the number of iterations that ran past the next deadline.
+     * @return The number of overruns.
+     * */
+    public long getOverruns() {
+        return overruns;
+    }
+
+    /**
+     * Gets the number of iterations that have run.
+     * @return The number of iterations.
+     * */
+    public long getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Runs the loop until it is stopped.
+     * */
+    private void run() {
+        long lastPeriod = period;
+        long start = System.nanoTime();
+        long deadline = start + lastPeriod;
+
+        long lastHistogram = start;
+
+        while (running) {
+            long now = System.nanoTime();
+            long current = period;
+
+            if (current != lastPeriod) {
+                // the period changed, so move the deadline relative to the start of the last iteration
+                deadline = start + current;
+                lastPeriod = current;
+                continue;
+            }
+
+            if (now < deadline) {
+                LockSupport.parkNanos(deadline - now);
+                continue;
+            }
+
+            start = now;
+            long jitter = start - deadline;
+
+            try {
+                task.run();
+            } catch (Exception e) {
+                System.out.println("[WARNING] Control loop iteration threw an exception:");
+                e.printStackTrace();
+            }
+
+            long end = System.nanoTime();
+
+            deadline += current;
+
+            if (end > deadline) {
+                overruns++;
+
+                // skip the iterations we missed instead of running them back to back
+                long missed = (end - deadline) / current + 1;
+                deadline += missed * current;
+            }
+
+            iterations++;
+            record(jitter);
+
+            executionTopic.update((end - start) / 1e6);
+            jitterTopic.update(jitter / 1e6);
+            overrunsTopic.update(overruns);
+            iterationsTopic.update(iterations);
+
+            if (end - lastHistogram >= HISTOGRAM_INTERVAL) {
+                publishHistogram();
+                lastHistogram = end;
+            }
+        }
+    }
+
+    /**
+     * Adds the jitter of an iteration to the histogram.
+     * @param jitter The jitter of the iteration, in ns.
+     * */
+    private void record(long jitter) {
+        long micros = jitter / 1_000;
+
+        int bucket = 0;
+
+        while (bucket < JITTER_BUCKETS.length && micros >= JITTER_BUCKETS[bucket]) {
+            bucket++;
+        }
+
+        histogram[bucket]++;
+    }
+
+    /**
+     * Publishes the histogram to its topic.
+     * */
+    private void publishHistogram() {
+        for (int i = 0; i < histogram.length; i++) {
+            long count = histogram[i];
+
+            for (int b = 0; b < Long.BYTES; b++) {
+                histogramData[i * Long.BYTES + b] = (byte) (count >>> (8 * (Long.BYTES - 1 - b)));
+            }
+        }
+
+        histogramTopic.update(histogramData);
+    }
+
+    /**
+     * Converts a period from ms to ns.
+     * @param period The period in ms.
+     * @return The period in ns, at least 1 ms.
+     * */
+    private static long toNanos(long period) {
+        return Math.max(period, 1) * 1_000_000;
+    }
+}
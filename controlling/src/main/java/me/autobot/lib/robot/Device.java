@@ -3,6 +3,7 @@ package me.autobot.lib.robot;
 import java.util.HashMap;
 import java.util.ArrayList;
 
+import me.autobot.lib.hardware.serial.SensorHubSerialConnection;
 import me.autobot.lib.telemetry.Log;
 import me.autobot.lib.telemetry.Logger;
 
@@ -31,6 +32,9 @@ public class Device implements Logger {
         for (Device device : devices) {
             device.emergencyStop();
         }
+
+        // send anything the devices queued now, the loop might not be running to do it
+        SensorHubSerialConnection.flushAll();
     }
 
     @Log
@@ -52,6 +56,7 @@ public class Device implements Logger {
         properties = new HashMap<>();
 
         registerDevice(this);
+        registerLogging();
     }
 
     /**
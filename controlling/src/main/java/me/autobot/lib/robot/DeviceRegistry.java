@@ -0,0 +1,149 @@
+package me.autobot.lib.robot;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * The devices of a robot: the fields of the robot that hold a {@link Device}, plus any devices added at runtime.
+ * <p>
+ * The fields are only looked up once, when the registry is created. After that they are read through {@link VarHandle}s,
+ * so getting the devices (for telemetry, stopping or switching to simulation) never goes through reflection,
+ * and still sees the current value of each field if it is reassigned.
+ * */
+public class DeviceRegistry {
+    private final Robot robot;
+
+    // one per field of the robot (or its superclasses) whose type is a device
+    private final VarHandle[] fields;
+
+    private final CopyOnWriteArrayList<Device> added = new CopyOnWriteArrayList<>();
+
+    /**
+     * Creates the registry of a robot, looking up the device fields of its class and superclasses (up to {@link Robot}).
+     * @param robot The robot to create the registry of.
+     * */
+    public DeviceRegistry(Robot robot) {
+        this.robot = robot;
+
+        ArrayList<VarHandle> handles = new ArrayList<>();
+
+        try {
+            for (Class<?> clazz = robot.getClass(); clazz != Robot.class && clazz != null; clazz = clazz.getSuperclass()) {
+                MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(clazz, MethodHandles.lookup());
+
+                for (Field field : clazz.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers()) || !Device.class.isAssignableFrom(field.getType())) {
+                        continue;
+                    }
+
+                    handles.add(lookup.unreflectVarHandle(field));
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Cannot access the devices of " + robot.getClass().getSimpleName() + ".", e);
+        }
+
+        this.fields = handles.toArray(new VarHandle[0]);
+    }
+
+    /**
+     * Adds a device that isn't held in a field of the robot, e.g. one created at runtime.
+     * Adding a device that is already registered does nothing.
+     * @param device The device to add.
+     * */
+    public void add(Device device) {
+        if (contains(device)) {
+            return;
+        }
+
+        added.add(device);
+    }
+
+    /**
+     * Removes a device that was added at runtime.
+     * @param device The device to remove.
+     * */
+    public void remove(Device device) {
+        added.remove(device);
+    }
+
+    /**
+     * Checks if a device is in the registry.
+     * @param device The device to check.
+     * @return Whether the device is held by a field of the robot or was added.
+     * */
+    public boolean contains(Device device) {
+        for (VarHandle field : fields) {
+            if (field.get(robot) == device) {
+                return true;
+            }
+        }
+
+        return added.contains(device);
+    }
+
+    /**
+     * Runs an action for every device, including the fields that hold null.
+     * @param action The action to run.
+     * */
+    public void forEach(Consumer<Device> action) {
+        for (VarHandle field : fields) {
+            action.accept((Device) field.get(robot));
+        }
+
+        for (Device device : added) {
+            action.accept(device);
+        }
+    }
+
+    /**
+     * Runs an action for every device that is of a type (and isn't null).
+     * @param type The type of the devices.
+     * @param action The action to run.
+     * @param <T> The type of the devices.
+     * */
+    public <T extends Device> void forEach(Class<T> type, Consumer<T> action) {
+        for (VarHandle field : fields) {
+            Object device = field.get(robot);
+
+            if (type.isInstance(device)) {
+                action.accept(type.cast(device));
+            }
+        }
+
+        for (Device device : added) {
+            if (type.isInstance(device)) {
+                action.accept(type.cast(device));
+            }
+        }
+    }
+
+    /**
+     * Gets every device, including the fields that hold null.
+     * @return A new list of the devices.
+     * */
+    public ArrayList<Device> getAll() {
+        ArrayList<Device> devices = new ArrayList<>(fields.length + added.size());
+        forEach(devices::add);
+
+        return devices;
+    }
+
+    /**
+     * Gets every device that is of a type.
+     * @param type The type of the devices.
+     * @return A new list of the devices.
+     * @param <T> The type of the devices.
+     * */
+    public <T extends Device> ArrayList<T> getAll(Class<T> type) {
+        ArrayList<T> devices = new ArrayList<>();
+        forEach(type, devices::add);
+
+        return devices;
+    }
+}
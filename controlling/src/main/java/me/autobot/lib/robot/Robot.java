@@ -1,7 +1,9 @@
 package me.autobot.lib.robot;
 
+import me.autobot.lib.hardware.serial.SensorHubSerialConnection;
 import me.autobot.lib.systems.mechanisms.Mechanism;
 import me.autobot.lib.telemetry.Log;
+import me.autobot.lib.telemetry.LogSampler;
 import me.autobot.lib.telemetry.Logger;
 import me.autobot.lib.math.Clock;
 import me.autobot.lib.math.objects.Geometry;
@@ -14,10 +16,10 @@ import me.autobot.lib.server.Server;
 import me.autobot.lib.server.WSClient;
 import me.autobot.lib.server.topica.Topica;
 import me.autobot.lib.tools.suppliers.ByteSupplier;
+import me.autobot.simulation.Capture;
 import org.reflections.Reflections;
 
 import java.io.IOException;
-import java.lang.reflect.Field;
 import java.nio.ByteBuffer;
 import java.util.*;
 
@@ -66,6 +68,9 @@ public abstract class Robot implements Logger {
 
         Server.start();
         Topica.start();
+
+        Capture.startFromProperty();
+        LogSampler.start();
     }
 
     /**
@@ -91,6 +96,9 @@ public abstract class Robot implements Logger {
 
         Server.start();
         Topica.start();
+
+        Capture.startFromProperty();
+        LogSampler.start();
     }
 
     /**
@@ -152,6 +160,7 @@ public abstract class Robot implements Logger {
     }
 
     private static ArrayList<WSClient> wsClients = new ArrayList<>();
+    private static final String STATUS_KEY = "robot/status";
     private static Timer wsTimer = new Timer();
 
     /**
@@ -204,11 +213,8 @@ public abstract class Robot implements Logger {
                                 toRemove.add(client);
                                 System.out.println("[INFO] Removed inactive client from robot status.");
                             } else {
-                                try {
-                                    client.send(data);
-                                } catch (IOException e) {
-                                    e.printStackTrace();
-                                }
+                                // only the latest status matters, so a slow client doesn't build up a backlog of them
+                                client.send(STATUS_KEY, data);
                             }
                         }
 
@@ -434,6 +440,26 @@ public abstract class Robot implements Logger {
 
     private static ArrayList<Robot> robots = new ArrayList<>();
 
+    private static boolean lockstep = false;
+
+    /**
+     * Sets if robots run in lockstep, that is, if their loop is only run when {@link #step()} is called instead of on a timer.
+     * This only affects robots created afterwards.
+     * @param lockstep Whether robots run in lockstep.
+     * */
+    public static void setLockstep(boolean lockstep) {
+        Robot.lockstep = lockstep;
+    }
+
+    /**
+     * Checks if robots run in lockstep.
+     * @return Whether robots run in lockstep.
+     * @see #setLockstep(boolean)
+     * */
+    public static boolean inLockstep() {
+        return lockstep;
+    }
+
     /**
      * Gets all the robots.
      * @return An array list of all the robots.
@@ -466,7 +492,7 @@ public abstract class Robot implements Logger {
     private byte identification;
 
     private long loopTime = 50;
-    private final Timer loopTimer;
+    private ControlLoop controlLoop;
 
     private long timeCreated = 0;
 
@@ -474,6 +500,8 @@ public abstract class Robot implements Logger {
 
     private Clock clock;
 
+    private volatile DeviceRegistry registry;
+
     /**
      * Creates a new, basic robot.
      * This robot has no sensors or motors.
@@ -484,25 +512,23 @@ public abstract class Robot implements Logger {
 
         robots.add(this);
 
-        this.setup();
+        registerLogging();
 
-        Mechanism.init_all(this);
+        this.setup();
 
-        TimerTask task = new TimerTask() {
-            @Override
-            public void run() {
-                if (paused) return;
+        // look up the device fields now, so nothing has to later on
+        getDeviceRegistry();
 
-                loop();
+        Mechanism.init_all(this);
 
-                Mechanism.update_all();
-            }
-        };
+        controlLoop = new ControlLoop("robot-loop-" + identification, this::step, loopTime);
 
-        loopTimer = new Timer();
-        loopTimer.schedule(task, loopTime, loopTime);
+        // in lockstep, whoever is driving the robot (e.g. a replay) calls step() instead
+        if (!lockstep) {
+            controlLoop.start();
+        }
 
-        timeCreated = System.currentTimeMillis();
+        timeCreated = Clock.now();
         clock = new Clock();
     }
 
@@ -533,10 +559,7 @@ public abstract class Robot implements Logger {
      * @see #switchDevicesToSimulation()
      * */
     protected void switchDevicesToSimulation() {
-        ArrayList<Device> devices = getDevices();
-        for (Device device : devices) {
-            device.enableSimulation();
-        }
+        getDeviceRegistry().forEach(Device.class, Device::enableSimulation);
     }
 
     /**
@@ -588,29 +611,56 @@ public abstract class Robot implements Logger {
     }
 
     /**
-     * Gets all the sensors of the robot.
-     * @return An array list of all the sensors of the robot.
-     * @see Device
-     * @see Sensor
+     * Gets the device registry of the robot, creating it if it hasn't been yet.
+     * The fields of the robot are only looked up the first time, after that the devices are read without reflection.
+     * @return The device registry of the robot.
      * */
-    public ArrayList<Sensor> getSensors() {
-        ArrayList<Sensor> sensors = new ArrayList<>();
-        for (Field field : this.getClass().asSubclass(this.getClass()).getDeclaredFields()) {
-            if ((field.getType().getSuperclass() == null ? field.getType() : field.getType().getSuperclass()).equals(Sensor.class)) {
-                boolean accessible = field.canAccess(this);
+    public DeviceRegistry getDeviceRegistry() {
+        DeviceRegistry registry = this.registry;
 
-                field.setAccessible(true);
-
-                try {
-                    sensors.add((Sensor) field.get(this));
-                } catch (IllegalAccessException e) {
-                    e.printStackTrace();
+        if (registry == null) {
+            synchronized (this) {
+                if (this.registry == null) {
+                    this.registry = new DeviceRegistry(this);
                 }
 
-                field.setAccessible(accessible);
+                registry = this.registry;
             }
         }
-        return sensors;
+
+        return registry;
+    }
+
+    /**
+     * Adds a device to the robot at runtime, for devices that aren't held in a field of the robot.
+     * The device is attached to the robot, and switched to simulation if the robot is being simulated.
+     * @param device The device to add.
+     * */
+    public void addDevice(Device device) {
+        getDeviceRegistry().add(device);
+        device.setParent(this);
+
+        if (totalSimulation) {
+            device.enableSimulation();
+        }
+    }
+
+    /**
+     * Removes a device that was added at runtime.
+     * @param device The device to remove.
+     * */
+    public void removeDevice(Device device) {
+        getDeviceRegistry().remove(device);
+    }
+
+    /**
+     * Gets all the sensors of the robot.
+     * @return An array list of all the sensors of the robot.
+     * @see Device
+     * @see Sensor
+     * */
+    public ArrayList<Sensor> getSensors() {
+        return getDeviceRegistry().getAll(Sensor.class);
     }
 
     /**
@@ -620,57 +670,17 @@ public abstract class Robot implements Logger {
      * @see Motor
      * */
     public ArrayList<Motor> getMotors() {
-        ArrayList<Motor> motors = new ArrayList<>();
-        for (Field field : this.getClass().asSubclass(this.getClass()).getDeclaredFields()) {
-            if ((field.getType().getSuperclass() == null ? field.getType() : field.getType().getSuperclass()).equals(Motor.class)) {
-                boolean accessible = field.canAccess(this);
-
-                field.setAccessible(true);
-
-                try {
-                    motors.add((Motor) field.get(this));
-                } catch (IllegalAccessException e) {
-                    e.printStackTrace();
-                }
-
-                field.setAccessible(accessible);
-            }
-        }
-        return motors;
+        return getDeviceRegistry().getAll(Motor.class);
     }
 
     /**
      * Gets all the devices of the robot.
+     * Fields that haven't been assigned yet are included as null.
      * @return An array list of all the devices of the robot.
      * @see Device
      * */
     public ArrayList<Device> getDevices() {
-        ArrayList<Device> devices = new ArrayList<>();
-        for (Field field : this.getClass().asSubclass(this.getClass()).getDeclaredFields()) {
-            Class<?> topLevel = (field.getType().getSuperclass() == null ? field.getType() : field.getType().getSuperclass());
-            while (topLevel.getSuperclass() != null) {
-                topLevel = topLevel.getSuperclass();
-
-                if (topLevel == Device.class) {
-                    break;
-                }
-            }
-
-             if (topLevel.equals(Device.class)) {
-                boolean accessible = field.canAccess(this);
-
-                field.setAccessible(true);
-
-                try {
-                    devices.add((Device) field.get(this));
-                } catch (IllegalAccessException e) {
-                    e.printStackTrace();
-                }
-
-                field.setAccessible(accessible);
-            }
-        }
-        return devices;
+        return getDeviceRegistry().getAll();
     }
 
     /**
@@ -679,7 +689,7 @@ public abstract class Robot implements Logger {
      * TODO: Deprecate this method and replace it with a default behavior.
      * */
     protected void registerAllDevices() {
-        getDevices().forEach(device -> {
+        getDeviceRegistry().forEach(device -> {
             if (device == null) {
                 System.out.println("[WARNING] Device is null, skipping registration!");
                 return;
@@ -689,21 +699,54 @@ public abstract class Robot implements Logger {
     }
 
     /**
-     * Cancels the loop timer.
+     * Runs one iteration of the robot: the loop method, then all of the mechanisms,
+     * then sends the motor commands queued during the iteration (one batch per serial port).
+     * Does nothing if the robot is paused.
+     * This is called by the control loop, or by whoever is driving the robot when in lockstep.
+     * */
+    public void step() {
+        if (paused) return;
+
+        loop();
+
+        Mechanism.update_all();
+
+        SensorHubSerialConnection.flushAll();
+    }
+
+    /**
+     * Stops the control loop.
      * Will stop the loop method from being called in the future.
      * */
     public void stopLoop() {
-        loopTimer.cancel();
+        controlLoop.stop();
         stop();
+        // waits for the mechanisms to stop, so the commands they queue while stopping are in the flush
         Mechanism.stop_all();
+
+        // make sure the stop commands go out, since there's no next tick to send them
+        SensorHubSerialConnection.flushAll();
     }
 
     /**
-     * Sets the loop time.
+     * Sets the loop time. This takes effect immediately, even while the robot is running.
      * @param loopTime The time between each loop.
      */
     public void setLoopTime(long loopTime) {
         this.loopTime = loopTime;
+
+        // null when called from setup(), before the loop is created
+        if (controlLoop != null) {
+            controlLoop.setPeriod(loopTime);
+        }
+    }
+
+    /**
+     * Gets the control loop of the robot, for its timing.
+     * @return The control loop of the robot.
+     * */
+    public ControlLoop getControlLoop() {
+        return controlLoop;
     }
 
     /**
@@ -719,7 +762,7 @@ public abstract class Robot implements Logger {
      * @return The time elapsed in milliseconds.
      * */
     public long getTimeElapsed() {
-        return System.currentTimeMillis() - timeCreated;
+        return Clock.now() - timeCreated;
     }
 
     /**
@@ -1,13 +1,15 @@
 package me.autobot.lib.robot;
 
+import me.autobot.lib.math.Clock;
 import me.autobot.lib.math.coordinates.Vector3d;
 import me.autobot.lib.math.rotation.Rotation3d;
 import me.autobot.lib.hardware.i2c.SensorHubI2CConnection;
+import me.autobot.lib.server.SensorBroadcaster;
 import me.autobot.lib.server.WSClient;
+import me.autobot.simulation.Capture;
 
 import java.util.ArrayList;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.locks.StampedLock;
 
 /**
  * A device that's used to sense the environment around the robot.
@@ -24,7 +26,7 @@ public class Sensor extends Device {
      * */
     public static Sensor getSensor(int identifier, int robotAddr) {
         for (Sensor sensor : sensors) {
-            if (sensor.identifier == identifier && sensor.getParentIdentification() == robotAddr) {
+            if (sensor.identifier == identifier && sensor.getParent() != null && sensor.getParentIdentification() == robotAddr) {
                 return sensor;
             }
         }
@@ -35,14 +37,18 @@ public class Sensor extends Device {
     private double[] sensorValues;
     private final int sensorChannels;
 
+    // a seqlock over the values: writers take the write lock, readers copy optimistically and retry if a write happened meanwhile
+    private final StampedLock valuesLock = new StampedLock();
+
+    // the sequence number and time of the latest sample, written under the lock
+    private volatile long sequence = 0;
+    private long timestamp = 0;
+
 
     private Vector3d relativePosition;
 
     private Rotation3d relativeRotation;
 
-    // any websocket clients that are subscribed to this sensor
-    private ArrayList<WSClient> subscribers;
-
     // for I2C connection
     private int address;
     private int bus;
@@ -51,9 +57,8 @@ public class Sensor extends Device {
 
     private final int identifier;
 
-    private Timer updateTimer;
-
-    private long updateInterval = 1000 / 20;
+    // the default time between updates to subscribers, in ms
+    private volatile long updateInterval = 1000 / 20;
 
     /**
      * Creates a new sensor with the given address and number of sensor channels.
@@ -71,8 +76,6 @@ public class Sensor extends Device {
         sensors.add(this);
 
         this.identifier = identifier;
-
-        startUpdateTimer();
     }
 
     /**
@@ -112,59 +115,89 @@ public class Sensor extends Device {
     }
 
     /**
-     * Starts the update timer for any sensor subscribers.
+     * Changes the update interval of the sensor for the subscribers. This takes effect from the next update.
+     * Subscribers that asked for their own rate are not affected.
+     * @param interval The new update interval of the sensor subscribers, in ms.
      * */
-    private void startUpdateTimer() {
-        TimerTask task = new TimerTask() {
-            @Override
-            public void run() {
-                if (subscribers == null) return;
-
-                ArrayList<WSClient> toRemove = new ArrayList<>();
-
-                for (int i = 0; i < subscribers.size(); i++) {
-                    WSClient client = subscribers.get(i);
-                    try {
-                        if (client.isOpen())
-                            client.sendSensorData(getParentIdentification(), (byte) getIdentifier(), getValues());
-                        else
-                            toRemove.add(client);
-                    } catch (Exception e) {
-                        // ignore
-                    }
-                }
-
-                toRemove.forEach(subscribers::remove);
-            }
-        };
-
-        updateTimer = new Timer();
-
-        updateTimer.schedule(task, 0, updateInterval);
+    protected void changeUpdateInterval(long interval) {
+        updateInterval = interval;
     }
 
     /**
-     * Changes the update interval of the sensor for the subscribers.
-     * @param interval The new update interval of the sensor subscribers.
+     * Gets the update interval of the sensor for the subscribers.
+     * @return The update interval, in ms.
      * */
-    protected void changeUpdateInterval(long interval) {
-        updateInterval = interval;
+    public long getUpdateInterval() {
+        return updateInterval;
     }
 
     /**
      * Returns the raw sensor values.
-     * @return The raw sensor values.
+     * @return A consistent copy of the raw sensor values, all from the same sample.
      * */
     public double[] getSensorValues() {
-        return sensorValues;
+        SensorSnapshot snapshot = new SensorSnapshot();
+        readSnapshot(snapshot);
+
+        return snapshot.getValues();
     }
 
     /**
      * Returns the processed sensor values.
-     * @return The processed sensor values.
+     * @return A consistent copy of the processed sensor values, all from the same sample.
      * */
     public double[] getValues() {
-        return sensorValues;
+        return getSensorValues();
+    }
+
+    /**
+     * Reads every channel of the sensor from the same sample into a snapshot, without locking or allocating (after the first read).
+     * @param snapshot The snapshot to read into, usually kept by the consumer between reads.
+     * @return True if the sample is newer than the one that was in the snapshot, false if nothing changed (in which case the snapshot is left as is).
+     * */
+    public boolean readSnapshot(SensorSnapshot snapshot) {
+        if (snapshot.getSequence() == sequence) {
+            return false;
+        }
+
+        long stamp = valuesLock.tryOptimisticRead();
+
+        if (stamp != 0) {
+            double[] values = sensorValues;
+            double[] into = snapshot.values(values.length);
+
+            System.arraycopy(values, 0, into, 0, values.length);
+            long sampleSequence = sequence;
+            long sampleTimestamp = timestamp;
+
+            if (valuesLock.validate(stamp)) {
+                snapshot.set(sampleSequence, sampleTimestamp);
+                return true;
+            }
+        }
+
+        // a write happened while copying, so wait for it instead of spinning
+        stamp = valuesLock.readLock();
+
+        try {
+            double[] into = snapshot.values(sensorValues.length);
+
+            System.arraycopy(sensorValues, 0, into, 0, sensorValues.length);
+            snapshot.set(sequence, timestamp);
+        } finally {
+            valuesLock.unlockRead(stamp);
+        }
+
+        return true;
+    }
+
+    /**
+     * Gets the sequence number of the latest sample, which goes up by one every time the sensor is written to.
+     * Consumers can compare it to the last one they saw to skip work when nothing changed.
+     * @return The sequence number of the latest sample.
+     * */
+    public long getSequence() {
+        return sequence;
     }
 
     /**
@@ -204,7 +237,7 @@ public class Sensor extends Device {
             throw new IllegalArgumentException("Values array must have the same length as the number of sensor channels");
         }
 
-        sensorValues = values;
+        write(values);
     }
 
     /**
@@ -254,7 +287,11 @@ public class Sensor extends Device {
      * @param values The values to set the sensor to.
      * */
     protected void setSensorValues(double... values) {
-        sensorValues = values;
+        write(values);
+
+        if (Capture.isCapturing() && getParent() != null) {
+            Capture.sensorValues(getParentIdentification(), identifier, values);
+        }
     }
 
     /**
@@ -263,7 +300,46 @@ public class Sensor extends Device {
      * @param value The value to set the sensor to.
      * */
     public void setSensorValue(int index, double value) {
-        sensorValues[index] = value;
+        long stamp = valuesLock.writeLock();
+
+        try {
+            sensorValues[index] = value;
+            published();
+        } finally {
+            valuesLock.unlockWrite(stamp);
+        }
+
+        if (Capture.isCapturing() && getParent() != null) {
+            Capture.sensorValue(getParentIdentification(), identifier, index, value);
+        }
+    }
+
+    /**
+     * Writes every channel of the sensor as one sample.
+     * @param values The values of the channels. They are copied, so the array can be reused.
+     * */
+    private void write(double[] values) {
+        long stamp = valuesLock.writeLock();
+
+        try {
+            if (values.length == sensorValues.length) {
+                System.arraycopy(values, 0, sensorValues, 0, values.length);
+            } else {
+                sensorValues = values.clone();
+            }
+
+            published();
+        } finally {
+            valuesLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Marks a new sample as written. Must be called while holding the write lock.
+     * */
+    private void published() {
+        timestamp = Clock.now();
+        sequence = sequence + 1;
     }
 
     /**
@@ -271,11 +347,17 @@ public class Sensor extends Device {
      * @param client The client to subscribe.
      * */
     public void subscribe(WSClient client) {
-        if (subscribers == null) {
-            subscribers = new ArrayList<>();
-        }
+        subscribe(client, 0);
+    }
 
-        subscribers.add(client);
+    /**
+     * Subscribes a client to the sensor to recieve updates at its own rate.
+     * Updates are only sent when the sensor has a new sample.
+     * @param client The client to subscribe.
+     * @param interval The minimum time between updates, in ms, or 0 for the update interval of the sensor.
+     * */
+    public void subscribe(WSClient client, long interval) {
+        SensorBroadcaster.subscribe(this, client, interval);
     }
 
     /**
@@ -283,9 +365,7 @@ public class Sensor extends Device {
      * @param client The client to unsubscribe.
      * */
     public void unsubscribe(WSClient client) {
-        if (subscribers == null) return;
-
-        subscribers.remove(client);
+        SensorBroadcaster.unsubscribe(this, client);
     }
 
     /**
@@ -0,0 +1,78 @@
+package me.autobot.lib.robot;
+
+/**
+ * A consistent copy of every channel of a sensor, from a single sample.
+ * <p>
+ * A snapshot is meant to be kept and reused by a consumer: {@link Sensor#readSnapshot(SensorSnapshot)} copies into it
+ * without allocating, and tells the consumer if there was anything new since the last read.
+ * */
+public class SensorSnapshot {
+    private double[] values = new double[0];
+
+    // -1 so the first read is always new
+    private long sequence = -1;
+    private long timestamp = 0;
+
+    /**
+     * Creates a new, empty snapshot.
+     * */
+    public SensorSnapshot() {
+
+    }
+
+    /**
+     * Gets the values of the channels of the sensor.
+     * @return The values, in an array that is reused by the next read into this snapshot.
+     * */
+    public double[] getValues() {
+        return values;
+    }
+
+    /**
+     * Gets the value of a channel of the sensor.
+     * @param index The index of the channel.
+     * @return The value of the channel.
+     * */
+    public double getValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * Gets the sequence number of the sample, which goes up by one every time the sensor is written to.
+     * @return The sequence number of the sample, or -1 if nothing has been read yet.
+     * */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Gets the time of the sample.
+     * @return The time the sample was written, in ms (see {@link me.autobot.lib.math.Clock#now()}).
+     * */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Gets the values array to copy a sample into, resizing it if the number of channels changed.
+     * @param channels The number of channels.
+     * @return The values array.
+     * */
+    double[] values(int channels) {
+        if (values.length != channels) {
+            values = new double[channels];
+        }
+
+        return values;
+    }
+
+    /**
+     * Sets the sequence and time of the sample that was copied in.
+     * @param sequence The sequence number of the sample.
+     * @param timestamp The time of the sample.
+     * */
+    void set(long sequence, long timestamp) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+    }
+}
@@ -4,8 +4,6 @@ import me.autobot.lib.math.Mathf;
 import me.autobot.lib.robot.Motor;
 import me.autobot.lib.hardware.serial.SensorHubSerialConnection;
 
-import java.nio.ByteBuffer;
-
 /**
  * A hoverboard wheel motor.
  * */
@@ -15,7 +13,6 @@ public class HoverboardWheel extends Motor {
     private int speedPin;
 
     private double speed = 0;
-    private double lastSpeed = 0;
 
     private double maxSpeed = 1;
 
@@ -84,6 +81,8 @@ public class HoverboardWheel extends Motor {
 
     /**
      * Reports the speed of the motor to the connection.
+     * The direction and speed are queued on the connection, and sent with the rest of the tick's writes at the end of the tick
+     * (pins whose value didn't change aren't sent again). Stops are sent right away, see {@link #stop()}.
      * */
     @Override
     protected void reportSpeed() {
@@ -95,39 +94,58 @@ public class HoverboardWheel extends Motor {
             throw new IllegalStateException("Cannot report speed without a connection!");
         }
 
-        if (!connectionRef.open()) {
+        connectionRef.queueWriteToPin(directionPin, this.speed < 0 ? SensorHubSerialConnection.HIGH : SensorHubSerialConnection.LOW);
+
+        writeToPWMPin(speedPin, (float) Mathf.map(Math.abs(this.speed), 0, 1, 0, 255));
+    }
+
+    /**
+     * Stops the motor right away: the stop replaces whatever the motor had queued this tick, and is sent now instead of at the end of the tick,
+     * so it reaches the hub even if the robot is paused or the loop isn't running.
+     * */
+    @Override
+    public void stop() {
+        this.speed = 0;
+
+        if (inSimulation() || connectionRef == null) {
             return;
         }
 
-        if (Math.signum(this.speed) != Math.signum(this.lastSpeed) || this.lastSpeed == 0) {
-            if (this.speed < 0) {
-                connectionRef.writeToPin(directionPin, SensorHubSerialConnection.HIGH);
-            } else {
-                connectionRef.writeToPin(directionPin, SensorHubSerialConnection.LOW);
-            }
+        reportSpeed();
+        connectionRef.flush();
+    }
+
+    /**
+     * Emergency stops the motor. Like {@link #stop()}, but the stop is written straight to the pins,
+     * even if the hub was already sent a speed of 0.
+     * */
+    @Override
+    public void emergencyStop() {
+        super.emergencyStop();
+
+        if (inSimulation() || connectionRef == null) {
+            return;
         }
 
-        writeToPWMPin(speedPin, (float) Mathf.map(Math.abs(this.speed), 0, 1, 0, 255));
+        connectionRef.writeToPin(directionPin, SensorHubSerialConnection.LOW);
+        connectionRef.writeToPin(speedPin, 0f);
     }
 
     /**
-     * Writes a float to a specific pin.
+     * Queues a float to be written to a specific pin at the end of the tick.
      * @param index The index of the pin to write to.
      * @param value The float to write to the pin.
      * */
     protected void writeToPWMPin(int index, float value) {
-        byte[] payload = new byte[Float.BYTES];
-
-        ByteBuffer bbuf = ByteBuffer.allocate(Float.BYTES);
-        bbuf.putFloat(value);
-
-        System.arraycopy(bbuf.array(), 0, payload, 0, Float.BYTES);
+        if (connectionRef == null) {
+            throw new IllegalStateException("Cannot write to pin without a connection.");
+        }
 
-        writeToPWMPin(index, payload);
+        connectionRef.queueWriteToPin(index, value);
     }
 
     /**
-     * Writes a byte list to a specific pin. Should be 4 bytes long (a float!)
+     * Queues a byte list to be written to a specific pin at the end of the tick. Should be 4 bytes long (a float!)
      * @param index The index of the pin to write to.
      * @param value The byte list (length=4) to write to the pin.
      * */
@@ -136,21 +154,7 @@ public class HoverboardWheel extends Motor {
             throw new IllegalStateException("Cannot write to pin without a connection.");
         }
 
-        if (!connectionRef.open()) {
-            return;
-        }
-
-        if (value.length != Float.BYTES) {
-            return;
-        }
-
-        byte[] payload = new byte[3 + value.length];
-        payload[0] = (byte) 0xA2;
-        payload[1] = (byte) index;
-
-        System.arraycopy(value, 0, payload, 2, value.length);
-        payload[2 + value.length] = SensorHubSerialConnection.THIS_DEVICE_ADDRESS;
-        connectionRef.write(payload);
+        connectionRef.queueWriteToPin(index, value);
     }
 
     /**
@@ -0,0 +1,245 @@
+package me.autobot.lib.server;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded queue of outgoing messages for a single connection, drained by one writer at a time.
+ * <p>
+ * The threads that produce data (timers, sensors, the robot loop) only ever add to the queue, so a client on a slow link
+ * only holds up its own writer, and never the producers or the other clients.
+ * <p>
+ * Messages can be given a key, for state-like messages (topic values, sensor snapshots, status) where only the newest value matters.
+ * If a message with the same key is still waiting to be sent, it is replaced in place by the newer one (coalesced) instead of queueing both.
+ * Messages without a key (responses, errors) are always queued, unless the queue is full, in which case they are dropped.
+ * @param <T> The type of the messages.
+ * */
+public class OutboundQueue<T> {
+    /**
+     * Sends a message over the connection. This may block for as long as the connection needs.
+     * @param <T> The type of the messages.
+     * */
+    public interface Sender<T> {
+        /**
+         * Sends a message.
+         * @param message The message to send.
+         * @throws IOException If the message could not be sent.
+         * */
+        void send(T message) throws IOException;
+    }
+
+    /**
+     * The default maximum number of messages waiting to be sent per connection.
+     * */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final ExecutorService writers;
+
+    static {
+        AtomicInteger threadNumber = new AtomicInteger(0);
+
+        // one thread per connection that is currently writing, so a blocked connection never takes a thread from another
+        writers = Executors.newCachedThreadPool((runnable) -> {
+            Thread thread = new Thread(runnable, "ws-writer-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * A message waiting to be sent.
+     * @param <T> The type of the message.
+     * */
+    private static class Entry<T> {
+        private final Object key;
+        private T message;
+
+        private Entry(Object key, T message) {
+            this.key = key;
+            this.message = message;
+        }
+    }
+
+    private final Sender<T> sender;
+    private final int capacity;
+
+    // all guarded by this
+    private final ArrayDeque<Entry<T>> queue = new ArrayDeque<>();
+    private final HashMap<Object, Entry<T>> pending = new HashMap<>();
+    private boolean draining = false;
+    private boolean closed = false;
+
+    private long sent = 0;
+    private long dropped = 0;
+    private long coalesced = 0;
+    private long failed = 0;
+
+    /**
+     * Creates a new outbound queue with the default capacity.
+     * @param sender Sends the messages over the connection.
+     * */
+    public OutboundQueue(Sender<T> sender) {
+        this(sender, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a new outbound queue.
+     * @param sender Sends the messages over the connection.
+     * @param capacity The maximum number of messages waiting to be sent.
+     * */
+    public OutboundQueue(Sender<T> sender, int capacity) {
+        this.sender = sender;
+        this.capacity = Math.max(capacity, 1);
+    }
+
+    /**
+     * Queues a message that is always sent (unless the queue is full).
+     * @param message The message to send.
+     * @return True if the message was queued, false if it was dropped.
+     * */
+    public boolean offer(T message) {
+        return offer(null, message);
+    }
+
+    /**
+     * Queues a message, replacing any message with the same key that hasn't been sent yet.
+     * @param key The key of the message, or null if it should never be replaced.
+     * @param message The message to send.
+     * @return True if the message was queued (or replaced an older one), false if it was dropped.
+     * */
+    public synchronized boolean offer(Object key, T message) {
+        if (closed) {
+            dropped++;
+            return false;
+        }
+
+        if (key != null) {
+            Entry<T> entry = pending.get(key);
+
+            if (entry != null) {
+                entry.message = message;
+                coalesced++;
+                return true;
+            }
+        }
+
+        if (queue.size() >= capacity) {
+            dropped++;
+            return false;
+        }
+
+        Entry<T> entry = new Entry<>(key, message);
+        queue.add(entry);
+
+        if (key != null) {
+            pending.put(key, entry);
+        }
+
+        if (!draining) {
+            draining = true;
+            writers.execute(this::drain);
+        }
+
+        return true;
+    }
+
+    /**
+     * Sends messages until the queue is empty.
+     * */
+    private void drain() {
+        while (true) {
+            T message;
+
+            synchronized (this) {
+                Entry<T> entry = queue.poll();
+
+                if (entry == null) {
+                    draining = false;
+                    return;
+                }
+
+                if (entry.key != null) {
+                    pending.remove(entry.key);
+                }
+
+                message = entry.message;
+            }
+
+            try {
+                sender.send(message);
+
+                synchronized (this) {
+                    sent++;
+                }
+            } catch (IOException | RuntimeException e) {
+                synchronized (this) {
+                    failed++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the queue, dropping every message that hasn't been sent, and every message queued afterwards.
+     * */
+    public synchronized void close() {
+        closed = true;
+
+        dropped += queue.size();
+
+        queue.clear();
+        pending.clear();
+    }
+
+    /**
+     * Gets the number of messages waiting to be sent.
+     * @return The depth of the queue.
+     * */
+    public synchronized int getDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Gets the maximum number of messages waiting to be sent.
+     * @return The capacity of the queue.
+     * */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Gets the number of messages that have been sent.
+     * @return The number of messages sent.
+     * */
+    public synchronized long getSentCount() {
+        return sent;
+    }
+
+    /**
+     * Gets the number of messages that were dropped because the queue was full or closed.
+     * @return The number of messages dropped.
+     * */
+    public synchronized long getDroppedCount() {
+        return dropped;
+    }
+
+    /**
+     * Gets the number of messages that were replaced by a newer message with the same key before they were sent.
+     * @return The number of messages coalesced.
+     * */
+    public synchronized long getCoalescedCount() {
+        return coalesced;
+    }
+
+    /**
+     * Gets the number of messages that failed to send.
+     * @return The number of messages that failed.
+     * */
+    public synchronized long getFailedCount() {
+        return failed;
+    }
+}
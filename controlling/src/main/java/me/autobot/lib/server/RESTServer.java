@@ -5,10 +5,16 @@ import fi.iki.elonen.NanoHTTPD;
 import me.autobot.lib.robot.PlayableRobot;
 import me.autobot.lib.robot.Robot;
 import me.autobot.lib.server.topica.Topica;
+import me.autobot.lib.server.topica.TopicHistory;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * REST server for the robot.
@@ -35,6 +41,16 @@ public class RESTServer extends NanoHTTPD {
         public Response run() {
             return null;
         }
+
+        /**
+         * Runs the route for a request, for routes that need the query parameters.
+         * By default, this runs {@link #run()}.
+         * @param session The session of the request.
+         * @return The response to the route.
+         * */
+        public Response run(IHTTPSession session) {
+            return run();
+        }
     }
 
     private HashMap<String, Route> routes = new HashMap<>();
@@ -109,6 +125,152 @@ public class RESTServer extends NanoHTTPD {
                 return newFixedLengthResponse(Response.Status.OK, "application/json", gson.toJson(topics));
             }
         });
+
+        // ?topic=/path&last=n or ?topic=/path&from=t0&to=t1 (in ms since the epoch)
+        addRoute("/api/v2/history", new Route() {
+            @Override
+            public Response run(IHTTPSession session) {
+                Map<String, List<String>> parameters = session.getParameters();
+
+                String path = getParameter(parameters, "topic");
+                Topica.Database.Topic topic = path == null ? null : Topica.getDatabase().getTopic(path);
+
+                if (topic == null) {
+                    return newFixedLengthResponse(Response.Status.NOT_FOUND, "application/json", "{\"error\":\"topic not found\"}");
+                }
+
+                TopicHistory history = topic.getHistory();
+
+                if (history == null) {
+                    return newFixedLengthResponse(Response.Status.NOT_FOUND, "application/json", "{\"error\":\"topic has no history\"}");
+                }
+
+                List<TopicHistory.Sample> samples;
+
+                try {
+                    String last = getParameter(parameters, "last");
+
+                    if (last != null) {
+                        samples = history.getLast(Integer.parseInt(last));
+                    } else {
+                        String from = getParameter(parameters, "from");
+                        String to = getParameter(parameters, "to");
+
+                        samples = history.getRange(
+                                from == null ? Long.MIN_VALUE : Long.parseLong(from),
+                                to == null ? Long.MAX_VALUE : Long.parseLong(to)
+                        );
+                    }
+                } catch (NumberFormatException e) {
+                    return newFixedLengthResponse(Response.Status.BAD_REQUEST, "application/json", "{\"error\":\"invalid number\"}");
+                }
+
+                ArrayList<Map<String, Object>> values = new ArrayList<>();
+
+                for (TopicHistory.Sample sample : samples) {
+                    Map<String, Object> value = new LinkedHashMap<>();
+                    value.put("timestamp", sample.getTimestamp());
+                    value.put("value", decode(topic.getType(), sample.getData()));
+
+                    values.add(value);
+                }
+
+                Map<String, Object> response = new LinkedHashMap<>();
+                response.put("topic", path);
+                response.put("type", topic.getType());
+                response.put("samples", values);
+
+                Gson gson = new Gson();
+
+                return newFixedLengthResponse(Response.Status.OK, "application/json", gson.toJson(response));
+            }
+        });
+
+        // the outbound queue of every open connection, to find the clients that can't keep up
+        addRoute("/api/v2/connections", new Route() {
+            @Override
+            public Response run() {
+                ArrayList<Map<String, Object>> connections = new ArrayList<>();
+
+                for (Topica connection : Topica.getConnections()) {
+                    connections.add(describe("topica", connection.getNickname(), connection.getOutbound()));
+                }
+
+                for (WSClient client : WSClient.getClients()) {
+                    connections.add(describe("ws", client.getHandshakeRequest().getRemoteIpAddress(), client.getOutbound()));
+                }
+
+                Gson gson = new Gson();
+
+                return newFixedLengthResponse(Response.Status.OK, "application/json", gson.toJson(connections));
+            }
+        });
+    }
+
+    /**
+     * Describes the outbound queue of a connection.
+     * @param type The type of the connection.
+     * @param name The name of the connection.
+     * @param outbound The outbound queue of the connection.
+     * @return The description of the queue, to be encoded as JSON.
+     * */
+    private static Map<String, Object> describe(String type, String name, OutboundQueue<?> outbound) {
+        Map<String, Object> connection = new LinkedHashMap<>();
+        connection.put("type", type);
+        connection.put("name", name);
+        connection.put("depth", outbound.getDepth());
+        connection.put("capacity", outbound.getCapacity());
+        connection.put("sent", outbound.getSentCount());
+        connection.put("dropped", outbound.getDroppedCount());
+        connection.put("coalesced", outbound.getCoalescedCount());
+        connection.put("failed", outbound.getFailedCount());
+
+        return connection;
+    }
+
+    /**
+     * Gets the first value of a query parameter.
+     * @param parameters The query parameters of the request.
+     * @param name The name of the parameter.
+     * @return The first value of the parameter, or null if it was not given.
+     * */
+    private static String getParameter(Map<String, List<String>> parameters, String name) {
+        List<String> values = parameters.get(name);
+
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+
+        return values.get(0);
+    }
+
+    /**
+     * Decodes the data of a topic into a value that can be put in JSON.
+     * @param type The type of the topic.
+     * @param data The data of the topic.
+     * @return The decoded value (a number, boolean or string), or the bytes for other types.
+     * */
+    private static Object decode(byte type, byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+
+        switch (type) {
+            case Topica.SHORT_TYPE:
+                return buffer.getShort();
+            case Topica.INT_TYPE:
+                return buffer.getInt();
+            case Topica.LONG_TYPE:
+                return buffer.getLong();
+            case Topica.FLOAT_TYPE:
+                return buffer.getFloat();
+            case Topica.DOUBLE_TYPE:
+                return buffer.getDouble();
+            case Topica.STRING_TYPE:
+                return new String(data, StandardCharsets.UTF_8);
+            case Topica.BOOLEAN_TYPE:
+                return data[0] == 1;
+            default:
+                return data;
+        }
     }
 
     /**
@@ -122,7 +284,7 @@ public class RESTServer extends NanoHTTPD {
         Route route = routes.get(uri);
 
         if (route != null) {
-            return route.run();
+            return route.run(session);
         } else {
             return newFixedLengthResponse("404");
         }
@@ -0,0 +1,292 @@
+package me.autobot.lib.server;
+
+import me.autobot.lib.robot.Sensor;
+import me.autobot.lib.robot.SensorSnapshot;
+import me.autobot.lib.server.topica.TopicaScheduler;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the values of sensors to the clients that subscribed to them, from one shared scheduler.
+ * <p>
+ * Only sensors with subscribers are looked at, and the scheduler only wakes up when a subscription is due.
+ * A subscription is only sent to when the sensor has a new sample since the last one it was sent,
+ * and each new sample is encoded once and the same frame is sent to every subscriber that is due.
+ * <p>
+ * Every subscription has its own interval. An interval of 0 follows the update interval of the sensor (see {@link Sensor#getUpdateInterval()}).
+ * */
+public class SensorBroadcaster {
+    /**
+     * A client subscribed to a sensor.
+     * */
+    private static class Subscription {
+        private final WSClient client;
+
+        // in ms, 0 to follow the sensor
+        private long interval;
+
+        private long nextDue;
+        private long lastSequence = -1;
+
+        private Subscription(WSClient client, long interval) {
+            this.client = client;
+            this.interval = interval;
+            this.nextDue = System.nanoTime();
+        }
+    }
+
+    /**
+     * The subscriptions of a sensor, and the last sample that was encoded for it.
+     * */
+    private static class Subscribers {
+        private final Sensor sensor;
+        private final ArrayList<Subscription> subscriptions = new ArrayList<>();
+
+        private final SensorSnapshot snapshot = new SensorSnapshot();
+        private byte[] frame;
+        private long frameSequence = -1;
+
+        // if the sensor processes its values (overrides getValues), so the frame can't be encoded from the snapshot
+        private final boolean processed;
+
+        private Subscribers(Sensor sensor) {
+            this.sensor = sensor;
+            this.processed = isProcessed(sensor);
+        }
+    }
+
+    // all guarded by SensorBroadcaster.class
+    private static final IdentityHashMap<Sensor, Subscribers> sensors = new IdentityHashMap<>();
+    private static final ArrayList<Subscribers> sensorList = new ArrayList<>();
+
+    private static ScheduledFuture<?> wakeUp;
+    private static long wakeUpAt = Long.MAX_VALUE;
+
+    private static long framesEncoded = 0;
+    private static long framesSent = 0;
+
+    /**
+     * Cannot instantiate a utility class.
+     * */
+    private SensorBroadcaster() {
+        throw new IllegalStateException("Cannot instantiate a utility class.");
+    }
+
+    /**
+     * Subscribes a client to a sensor. Subscribing again changes the interval of the existing subscription.
+     * The client is sent the current values of the sensor right away.
+     * @param sensor The sensor to subscribe to.
+     * @param client The client to send the values to.
+     * @param interval The minimum time between updates, in ms, or 0 to follow the update interval of the sensor.
+     * */
+    public static synchronized void subscribe(Sensor sensor, WSClient client, long interval) {
+        Subscribers subscribers = sensors.get(sensor);
+
+        if (subscribers == null) {
+            subscribers = new Subscribers(sensor);
+
+            sensors.put(sensor, subscribers);
+            sensorList.add(subscribers);
+        }
+
+        for (Subscription subscription : subscribers.subscriptions) {
+            if (subscription.client == client) {
+                subscription.interval = Math.max(interval, 0);
+                return;
+            }
+        }
+
+        subscribers.subscriptions.add(new Subscription(client, Math.max(interval, 0)));
+
+        wakeUpBy(System.nanoTime());
+    }
+
+    /**
+     * Unsubscribes a client from a sensor.
+     * @param sensor The sensor to unsubscribe from.
+     * @param client The client to unsubscribe.
+     * */
+    public static synchronized void unsubscribe(Sensor sensor, WSClient client) {
+        Subscribers subscribers = sensors.get(sensor);
+
+        if (subscribers == null) {
+            return;
+        }
+
+        subscribers.subscriptions.removeIf((subscription) -> subscription.client == client);
+
+        if (subscribers.subscriptions.isEmpty()) {
+            sensors.remove(sensor);
+            sensorList.remove(subscribers);
+        }
+    }
+
+    /**
+     * Unsubscribes a client from every sensor, e.g. when it disconnects.
+     * @param client The client to unsubscribe.
+     * */
+    public static synchronized void unsubscribeAll(WSClient client) {
+        for (int i = sensorList.size() - 1; i >= 0; i--) {
+            unsubscribe(sensorList.get(i).sensor, client);
+        }
+    }
+
+    /**
+     * Gets the number of clients subscribed to a sensor.
+     * @param sensor The sensor.
+     * @return The number of subscribers.
+     * */
+    public static synchronized int getSubscriberCount(Sensor sensor) {
+        Subscribers subscribers = sensors.get(sensor);
+
+        return subscribers == null ? 0 : subscribers.subscriptions.size();
+    }
+
+    /**
+     * Gets the number of frames that were encoded (one per new sample of a sensor with a due subscriber).
+     * @return The number of frames encoded.
+     * */
+    public static synchronized long getFramesEncoded() {
+        return framesEncoded;
+    }
+
+    /**
+     * Gets the number of frames that were sent, counting each subscriber.
+     * @return The number of frames sent.
+     * */
+    public static synchronized long getFramesSent() {
+        return framesSent;
+    }
+
+    /**
+     * Makes sure the scheduler wakes up by a time.
+     * @param time The time to wake up by, from {@link System#nanoTime()}.
+     * */
+    private static void wakeUpBy(long time) {
+        if (wakeUp != null && wakeUpAt <= time) {
+            return;
+        }
+
+        if (wakeUp != null) {
+            wakeUp.cancel(false);
+        }
+
+        wakeUpAt = time;
+        wakeUp = TopicaScheduler.schedule(SensorBroadcaster::run, Math.max(time - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sends every due subscription, and schedules the next wake up for the earliest one after that.
+     * */
+    private static synchronized void run() {
+        wakeUp = null;
+        wakeUpAt = Long.MAX_VALUE;
+
+        long now = System.nanoTime();
+        long next = Long.MAX_VALUE;
+
+        for (int i = sensorList.size() - 1; i >= 0; i--) {
+            Subscribers subscribers = sensorList.get(i);
+            Sensor sensor = subscribers.sensor;
+
+            boolean read = false;
+
+            for (int s = subscribers.subscriptions.size() - 1; s >= 0; s--) {
+                Subscription subscription = subscribers.subscriptions.get(s);
+
+                if (!subscription.client.isOpen()) {
+                    subscribers.subscriptions.remove(s);
+                    continue;
+                }
+
+                long interval = TimeUnit.MILLISECONDS.toNanos(Math.max(subscription.interval == 0 ? sensor.getUpdateInterval() : subscription.interval, 1));
+
+                if (now - subscription.nextDue < 0) {
+                    next = Math.min(next, subscription.nextDue);
+                    continue;
+                }
+
+                if (!read) {
+                    sensor.readSnapshot(subscribers.snapshot);
+                    read = true;
+                }
+
+                // if there is nothing new for this subscriber, check again next interval
+                if (subscribers.snapshot.getSequence() != subscription.lastSequence) {
+                    try {
+                        subscription.client.send(WSClient.valuesKey((byte) 0x01, sensor.getParentIdentification(), (byte) sensor.getIdentifier()), frame(subscribers));
+                        framesSent++;
+                    } catch (Exception e) {
+                        // the client is closing, it will be removed next time
+                    }
+
+                    // the sample that is in the frame, which can be older than the snapshot for processed sensors (then it's sent again next time)
+                    subscription.lastSequence = subscribers.frameSequence;
+                }
+
+                subscription.nextDue = now + interval;
+                next = Math.min(next, subscription.nextDue);
+            }
+
+            if (subscribers.subscriptions.isEmpty()) {
+                sensors.remove(sensor);
+                sensorList.remove(i);
+            }
+        }
+
+        if (next != Long.MAX_VALUE) {
+            wakeUpBy(next);
+        }
+    }
+
+    /**
+     * Gets the frame of the current sample of a sensor, encoding it if it hasn't been yet.
+     * @param subscribers The subscribers of the sensor.
+     * @return The encoded frame. It is shared by every subscriber, so it must not be changed.
+     * */
+    private static byte[] frame(Subscribers subscribers) {
+        if (subscribers.frame == null || subscribers.frameSequence != subscribers.snapshot.getSequence()) {
+            Sensor sensor = subscribers.sensor;
+
+            double[] values;
+            long sequence;
+
+            if (!subscribers.processed) {
+                // the values and the sequence are from the same read
+                values = subscribers.snapshot.getValues();
+                sequence = subscribers.snapshot.getSequence();
+            } else {
+                // the sequence is read first, so the frame is never tagged with a sample newer than the one in it
+                int attempts = 0;
+
+                do {
+                    sequence = sensor.getSequence();
+                    values = sensor.getValues();
+                } while (sensor.getSequence() != sequence && ++attempts < 3);
+            }
+
+            subscribers.frame = WSClient.encodeSensorData(sensor.getParentIdentification(), (byte) sensor.getIdentifier(), values);
+            subscribers.frameSequence = sequence;
+            framesEncoded++;
+        }
+
+        return subscribers.frame;
+    }
+
+    /**
+     * Checks if a sensor processes its values, by overriding {@link Sensor#getValues()} or {@link Sensor#getSensorValues()}.
+     * @param sensor The sensor.
+     * @return True if the values sent to clients aren't the raw values of the sensor.
+     * */
+    private static boolean isProcessed(Sensor sensor) {
+        try {
+            return sensor.getClass().getMethod("getValues").getDeclaringClass() != Sensor.class
+                    || sensor.getClass().getMethod("getSensorValues").getDeclaringClass() != Sensor.class;
+        } catch (NoSuchMethodException e) {
+            return true;
+        }
+    }
+}
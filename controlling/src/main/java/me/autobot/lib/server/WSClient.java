@@ -8,13 +8,16 @@ import me.autobot.lib.robot.PlayableRobot;
 import me.autobot.lib.robot.Robot;
 import me.autobot.lib.robot.Sensor;
 import me.autobot.lib.tools.RunnableWithArgs;
+import me.autobot.simulation.Capture;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import static me.autobot.lib.math.Mathf.allPos;
 
@@ -116,6 +119,17 @@ public class WSClient extends NanoWSD.WebSocket {
 
     private static final boolean verbose = false;
 
+    // the key of pings in the outbound queue, so a client that's behind only ever has one waiting
+    private static final Object PING_KEY = new Object();
+
+    /**
+     * All of the clients that are currently open.
+     * */
+    private static final CopyOnWriteArrayList<WSClient> clients = new CopyOnWriteArrayList<>();
+
+    // everything sent to the client goes through here, so a slow client never blocks the thread producing the data
+    private final OutboundQueue<NanoWSD.WebSocketFrame> outbound = new OutboundQueue<>(this::sendFrame);
+
     private static HashMap<Integer, Runnable> callables = new HashMap<>();
 
     /**
@@ -189,11 +203,80 @@ public class WSClient extends NanoWSD.WebSocket {
         sensorConnections.add(connection);
     }
 
+    /**
+     * Gets a registered sensor connection by its id.
+     * @param id The WS ID of the sensor connection.
+     * @return The sensor connection, or null if there is no connection with the id.
+     * */
+    public static WSSensorConnection getSensorConnection(int id) {
+        return sensorConnections.stream().filter(c -> c.getId() == id).findFirst().orElse(null);
+    }
+
+    /**
+     * Gets all of the clients that are currently open.
+     * @return The open clients.
+     * */
+    public static List<WSClient> getClients() {
+        return clients;
+    }
+
+    /**
+     * Queues binary data to be sent to the client.
+     * This never blocks, the data is sent by the writer of the client.
+     * @param payload The data to send.
+     * @throws IOException Never, kept for compatibility with {@link NanoWSD.WebSocket#send(byte[])}.
+     * */
+    @Override
+    public void send(byte[] payload) throws IOException {
+        outbound.offer(new NanoWSD.WebSocketFrame(NanoWSD.WebSocketFrame.OpCode.Binary, true, payload));
+    }
+
+    /**
+     * Queues text to be sent to the client.
+     * This never blocks, the text is sent by the writer of the client.
+     * @param payload The text to send.
+     * @throws IOException If the text cannot be encoded.
+     * */
+    @Override
+    public void send(String payload) throws IOException {
+        outbound.offer(new NanoWSD.WebSocketFrame(NanoWSD.WebSocketFrame.OpCode.Text, true, payload));
+    }
+
+    /**
+     * Queues state-like binary data (e.g. a sensor snapshot or the robot status) to be sent to the client.
+     * If data with the same key is still waiting to be sent, it is replaced, so a slow client only gets the newest value.
+     * @param key The key of the data, e.g. what it is a snapshot of. Compared with equals().
+     * @param payload The data to send.
+     * */
+    public void send(Object key, byte[] payload) {
+        outbound.offer(key, new NanoWSD.WebSocketFrame(NanoWSD.WebSocketFrame.OpCode.Binary, true, payload));
+    }
+
+    /**
+     * Queues a ping to the client. Only one ping is ever waiting to be sent.
+     * @param payload The payload of the ping.
+     * @throws IOException Never, kept for compatibility with {@link NanoWSD.WebSocket#ping(byte[])}.
+     * */
+    @Override
+    public void ping(byte[] payload) throws IOException {
+        outbound.offer(PING_KEY, new NanoWSD.WebSocketFrame(NanoWSD.WebSocketFrame.OpCode.Ping, true, payload));
+    }
+
+    /**
+     * Gets the outbound queue of the client, for its depth and drop counters.
+     * @return The outbound queue of the client.
+     * */
+    public OutboundQueue<NanoWSD.WebSocketFrame> getOutbound() {
+        return outbound;
+    }
+
     /**
      * Called when the client is opened.
      * */
     @Override
     protected void onOpen() {
+        clients.add(this);
+
         activated = false;
         created = (int) (System.currentTimeMillis());
 
@@ -235,6 +318,11 @@ public class WSClient extends NanoWSD.WebSocket {
     @Override
     protected void onClose(NanoWSD.WebSocketFrame.CloseCode code, String reason, boolean initiatedByRemote) {
         //make sure this is removed from memory
+        clients.remove(this);
+        outbound.close();
+
+        SensorBroadcaster.unsubscribeAll(this);
+
         System.out.println("Client disconnected (" + (initiatedByRemote ? "remotely" : "by us") + ")! " + code.toString() + ": " + reason);
     }
 
@@ -430,14 +518,23 @@ public class WSClient extends NanoWSD.WebSocket {
 
         int sensorConnectionAddress = payload[0];
 
-        WSSensorConnection connection = sensorConnections.stream().filter(c -> c.getId() == sensorConnectionAddress).findFirst().orElse(null);
+        WSSensorConnection connection = getSensorConnection(sensorConnectionAddress);
 
         if (connection == null) {
             notifyError(Error.SensorNotFound);
             return;
         }
 
-        connection.onUpdate(Arrays.copyOfRange(payload, 1, payload.length));
+        // the payload is always the end of the message (the prefixes are taken off the front), so the connection can read the message directly
+        byte[] raw = message.getBinaryPayload();
+        int length = payload.length - 1;
+        int offset = raw.length - length;
+
+        if (Capture.isCapturing()) {
+            Capture.frame(sensorConnectionAddress, raw, offset, length);
+        }
+
+        connection.onUpdate(raw, offset, length);
     }
 
     /**
@@ -512,12 +609,14 @@ public class WSClient extends NanoWSD.WebSocket {
         //[0] -> robot address
         //[1] -> sensor address
         //[2] -> 0x00 for unsubscribe, 0x01 for subscribe
+        //[3] -> (optional) the rate to send at in Hz, 0 or missing for the rate of the sensor
 
-        if (payload.length < 2) { notifyError(Error.InvalidPayloadLength); return; }
+        if (payload.length < 3) { notifyError(Error.InvalidPayloadLength); return; }
 
         int robotAddr = payload[0];
         int sensorAddress = payload[1];
         int subscribe = payload[2];
+        int rate = payload.length > 3 ? payload[3] & 0xFF : 0;
 
         Sensor sensor = Sensor.getSensor(sensorAddress, robotAddr);
 
@@ -530,7 +629,7 @@ public class WSClient extends NanoWSD.WebSocket {
             sensor.unsubscribe(this);
         } else if (subscribe == 0x01) {
             System.out.println("[Robot " + robotAddr + "]: Subscribed to sensor " + sensorAddress);
-            sensor.subscribe(this);
+            sensor.subscribe(this, rate == 0 ? 0 : Math.max(1000 / rate, 1));
         } else {
             notifyError(Error.InvalidArgument);
         }
@@ -602,17 +701,42 @@ public class WSClient extends NanoWSD.WebSocket {
      * @param values The values to send.
      * */
     public void sendSensorData(byte robotAddress, byte sensorAddress, double[] values) {
-        byte[] payload = new byte[Double.BYTES * values.length + 1];
+        send(valuesKey((byte) 0x01, robotAddress, sensorAddress), encodeSensorData(robotAddress, sensorAddress, values));
+    }
 
-        payload[0] = (byte) values.length;
+    /**
+     * Encodes sensor data into a frame that can be sent to any client (the same frame {@link #sendSensorData(byte, byte, double[])} sends).
+     * @param robotAddress The address of the robot.
+     * @param sensorAddress The address of the sensor.
+     * @param values The values to encode.
+     * @return The encoded frame.
+     * */
+    public static byte[] encodeSensorData(byte robotAddress, byte sensorAddress, double[] values) {
+        ByteBuffer frame = ByteBuffer.allocate(5 + values.length * Double.BYTES);
 
-        ByteBuffer bbuf = ByteBuffer.allocate(values.length * Double.BYTES);
+        frame.put((byte) 0xC0);
+        frame.put((byte) 0x01);
+        frame.put(robotAddress);
+        frame.put(sensorAddress);
+        frame.put((byte) values.length);
 
-        Arrays.stream(values).forEach(bbuf::putDouble);
+        for (double value : values) {
+            frame.putDouble(value);
+        }
 
-        System.arraycopy(bbuf.array(), 0, payload, 1, values.length * Double.BYTES);
+        return frame.array();
+    }
 
-        sendValues((byte) 0x01, robotAddress, sensorAddress, payload);
+    /**
+     * Gets the key values of a type/address pair are coalesced by in the outbound queue.
+     * Values are snapshots, so only the newest of each type/address pair needs to be sent.
+     * @param type The type of the values.
+     * @param address The first address (typically the robot address)
+     * @param address2 The second address (typically the sensor address)
+     * @return The key of the values.
+     * */
+    public static int valuesKey(byte type, byte address, byte address2) {
+        return (type & 0xFF) << 16 | (address & 0xFF) << 8 | (address2 & 0xFF);
     }
 
     /**
@@ -633,12 +757,7 @@ public class WSClient extends NanoWSD.WebSocket {
 
         if (payload.length > 0) System.arraycopy(payload, 0, encodedValues, infoPayloadLength, payload.length);
 
-        try {
-            send(encodedValues);
-        } catch (IOException e) {
-            notifyError(Error.InternalError);
-            e.printStackTrace();
-        }
+        send(valuesKey(type, address, address2), encodedValues);
     }
 
     /**
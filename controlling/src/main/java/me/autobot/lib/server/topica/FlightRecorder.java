@@ -0,0 +1,577 @@
+package me.autobot.lib.server.topica;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A flight recorder ("black box") that appends every topic update to memory-mapped, segmented log files.
+ * <p>
+ * Recording an update only reserves space in the current segment and copies the value into the mapped memory,
+ * so the updating thread never waits on the disk. Creating, flushing and deleting segments happens on a background thread,
+ * which keeps the next segment ready so the switch is just a swap. If a segment fills up before the next one is ready, updates are dropped (and counted).
+ * <p>
+ * Each segment goes: [magic "TREC" (4 bytes)] [format version (4 bytes)] [wall clock time in ms (8 bytes)] [nano time (8 bytes)],
+ * followed by records. Each record goes: [record length (4 bytes)] [nano time (8 bytes)] [topic id (4 bytes)] [type] [data length (4 bytes)] [data],
+ * padded to a multiple of 4 bytes. A record length of 0 marks the end of the segment.
+ * Every segment starts with a definition record (type {@link #DEFINITION_TYPE}, data being [topic type] [path]) for every topic,
+ * and topics created later get a definition record when they are created, so each segment can be read on its own.
+ * */
+public class FlightRecorder {
+    /**
+     * The type of a record that defines a topic id, rather than an update.
+     * */
+    public static final byte DEFINITION_TYPE = (byte) 0xFF;
+
+    /**
+     * The default directory segments are written to.
+     * */
+    public static final String DEFAULT_DIRECTORY = "recordings";
+
+    /**
+     * The default size of a segment.
+     * */
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * The default number of segments kept on disk, older segments are deleted.
+     * */
+    public static final int DEFAULT_MAX_SEGMENTS = 16;
+
+    private static final int MAGIC = 0x54524543; // TREC
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int SEGMENT_HEADER_SIZE = 4 + 4 + 8 + 8;
+    private static final int RECORD_HEADER_SIZE = 4 + 8 + 4 + 1 + 4;
+
+    private static final long FLUSH_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    // written last, with release semantics, so a reader that sees the length also sees the rest of the record
+    private static final VarHandle LENGTH = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+    /**
+     * A segment file, mapped into memory.
+     * */
+    private static class Segment {
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private final int capacity;
+
+        private final AtomicInteger position = new AtomicInteger(SEGMENT_HEADER_SIZE);
+
+        /**
+         * Creates and maps a new segment file, and writes its header.
+         * @param path The path of the segment file.
+         * @param capacity The size of the segment.
+         * @throws IOException If the file cannot be created or mapped.
+         * */
+        Segment(Path path, int capacity) throws IOException {
+            this.path = path;
+            this.capacity = capacity;
+
+            channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, FORMAT_VERSION);
+            buffer.putLong(8, System.currentTimeMillis());
+            buffer.putLong(16, System.nanoTime());
+        }
+
+        /**
+         * Reserves space for a record.
+         * @param length The length of the record, a multiple of 4.
+         * @return The offset of the record, or -1 if the segment is full.
+         * */
+        int reserve(int length) {
+            int offset = position.getAndAdd(length);
+
+            if (offset + length > capacity) {
+                // leave the position past the end, so everyone after also sees the segment as full
+                return -1;
+            }
+
+            return offset;
+        }
+
+        /**
+         * Writes a record at a reserved offset.
+         * @param offset The offset of the record.
+         * @param length The length of the record.
+         * @param time The nano time of the record.
+         * @param id The id of the topic.
+         * @param type The type of the record.
+         * @param data The data of the record.
+         * @param prefix A byte to put before the data, or -1 for none.
+         * */
+        void write(int offset, int length, long time, int id, byte type, byte[] data, int prefix) {
+            int dataLength = data.length + (prefix >= 0 ? 1 : 0);
+
+            buffer.putLong(offset + 4, time);
+            buffer.putInt(offset + 12, id);
+            buffer.put(offset + 16, type);
+            buffer.putInt(offset + 17, dataLength);
+
+            int index = offset + RECORD_HEADER_SIZE;
+
+            if (prefix >= 0) {
+                buffer.put(index++, (byte) prefix);
+            }
+
+            buffer.put(index, data);
+
+            LENGTH.setRelease(buffer, offset, length);
+        }
+
+        /**
+         * Flushes the segment to disk.
+         * */
+        void flush() {
+            buffer.force();
+        }
+
+        /**
+         * Flushes and closes the segment. The mapping stays valid for records that are still being written.
+         * */
+        void close() {
+            flush();
+
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * A record read from a segment.
+     * */
+    public static interface RecordConsumer {
+        /**
+         * Called for every record of a segment.
+         * @param wallTime The wall clock time of the record, in ms since the epoch.
+         * @param nanoTime The nano time of the record.
+         * @param id The id of the topic.
+         * @param type The type of the topic, or {@link #DEFINITION_TYPE} for a definition record.
+         * @param data The data of the record.
+         * */
+        void accept(long wallTime, long nanoTime, int id, byte type, byte[] data);
+    }
+
+    private static Path directory = Paths.get(DEFAULT_DIRECTORY);
+    private static int segmentSize = DEFAULT_SEGMENT_SIZE;
+    private static int maxSegments = DEFAULT_MAX_SEGMENTS;
+
+    private static volatile boolean running = false;
+
+    private static final AtomicReference<Segment> current = new AtomicReference<>();
+    private static volatile Segment next;
+
+    // segments that were swapped out, and need to be flushed and closed by the background thread
+    private static final ConcurrentLinkedQueue<Segment> retired = new ConcurrentLinkedQueue<>();
+
+    // held while writing definitions, so a topic created while the next segment is prepared is defined in both
+    private static final Object definitionLock = new Object();
+
+    private static final AtomicLong records = new AtomicLong(0);
+    private static final AtomicLong dropped = new AtomicLong(0);
+
+    private static long runStarted;
+    private static int segmentCount;
+
+    private static Thread writer;
+
+    /**
+     * Tries to instantiate a FlightRecorder object, but throws an exception because it is a utility class.
+     * Please use the static methods instead.
+     * */
+    public FlightRecorder() {
+        throw new IllegalStateException("Cannot instantiate a utility class.");
+    }
+
+    /**
+     * Sets where and how the recorder writes segments. Needs to be called before {@link #start()}.
+     * @param directory The directory to write the segments to.
+     * @param segmentSize The size of a segment in bytes.
+     * @param maxSegments The number of segments to keep on disk, older segments are deleted.
+     * */
+    public static void configure(Path directory, int segmentSize, int maxSegments) {
+        FlightRecorder.directory = directory;
+        FlightRecorder.segmentSize = segmentSize;
+        FlightRecorder.maxSegments = maxSegments;
+    }
+
+    /**
+     * Starts recording every topic update.
+     * */
+    public static synchronized void start() {
+        if (running) {
+            return;
+        }
+
+        runStarted = System.currentTimeMillis();
+        segmentCount = 0;
+
+        // running before the first segment exists, so a topic created while it's prepared is either in its definitions or defined after
+        running = true;
+
+        try {
+            Files.createDirectories(directory);
+            createSegment(false);
+        } catch (IOException e) {
+            running = false;
+            System.out.println("[WARNING] Could not start the flight recorder: " + e.getMessage());
+            return;
+        }
+
+        writer = new Thread(FlightRecorder::runWriter, "topica-recorder");
+        writer.setDaemon(true);
+        writer.start();
+
+        System.out.println("[TOPICA] Flight recorder started, writing to " + directory.toAbsolutePath());
+    }
+
+    /**
+     * Stops recording, and flushes and closes the segments.
+     * */
+    public static synchronized void stop() {
+        if (!running) {
+            return;
+        }
+
+        running = false;
+
+        LockSupport.unpark(writer);
+
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        Segment last = current.getAndSet(null);
+
+        if (last != null) {
+            last.close();
+        }
+
+        if (next != null) {
+            next.close();
+
+            try {
+                Files.deleteIfExists(next.path);
+            } catch (IOException ignored) {}
+
+            next = null;
+        }
+    }
+
+    /**
+     * Checks if the recorder is running.
+     * @return True if the recorder is running, false otherwise.
+     * */
+    public static boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Gets the number of records written.
+     * @return The number of records written.
+     * */
+    public static long getRecordCount() {
+        return records.get();
+    }
+
+    /**
+     * Gets the number of records dropped because a segment was full and the next one wasn't ready.
+     * @return The number of records dropped.
+     * */
+    public static long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Records an update of a topic. Called by the topic while holding its lock, so the data doesn't change while it is copied.
+     * @param id The id of the topic.
+     * @param type The type of the topic.
+     * @param data The new data of the topic.
+     * */
+    static void record(int id, byte type, byte[] data) {
+        if (!running || id < 0) {
+            return;
+        }
+
+        append(System.nanoTime(), id, type, data, -1);
+    }
+
+    /**
+     * Writes a definition record for a topic that was just added to the database, before its first value is recorded.
+     * @param topic The topic that was added.
+     * */
+    static void define(Topica.Database.Topic topic) {
+        if (!running) {
+            return;
+        }
+
+        byte[] path = topic.getPath().getBytes(StandardCharsets.UTF_8);
+
+        synchronized (definitionLock) {
+            long time = System.nanoTime();
+
+            append(time, topic.getId(), DEFINITION_TYPE, path, topic.getType() & 0xFF);
+
+            Segment prepared = next;
+
+            if (prepared != null) {
+                appendTo(prepared, time, topic.getId(), DEFINITION_TYPE, path, topic.getType() & 0xFF);
+            }
+        }
+    }
+
+    /**
+     * Appends a record to the current segment, swapping to the next segment if the current one is full.
+     * @param time The nano time of the record.
+     * @param id The id of the topic.
+     * @param type The type of the record.
+     * @param data The data of the record.
+     * @param prefix A byte to put before the data, or -1 for none.
+     * */
+    private static void append(long time, int id, byte type, byte[] data, int prefix) {
+        for (int attempt = 0; attempt < 2; attempt++) {
+            Segment segment = current.get();
+
+            if (segment == null) {
+                return;
+            }
+
+            if (appendTo(segment, time, id, type, data, prefix)) {
+                return;
+            }
+
+            Segment prepared = next;
+
+            if (prepared == null) {
+                break;
+            }
+
+            if (current.compareAndSet(segment, prepared)) {
+                next = null;
+                retired.add(segment);
+
+                LockSupport.unpark(writer);
+            }
+        }
+
+        dropped.incrementAndGet();
+    }
+
+    /**
+     * Appends a record to a segment.
+     * @param segment The segment to append to.
+     * @param time The nano time of the record.
+     * @param id The id of the topic.
+     * @param type The type of the record.
+     * @param data The data of the record.
+     * @param prefix A byte to put before the data, or -1 for none.
+     * @return True if the record was written, false if the segment is full.
+     * */
+    private static boolean appendTo(Segment segment, long time, int id, byte type, byte[] data, int prefix) {
+        int length = (RECORD_HEADER_SIZE + data.length + (prefix >= 0 ? 1 : 0) + 3) & ~3;
+
+        if (length > segment.capacity - SEGMENT_HEADER_SIZE) {
+            // would never fit, not even in an empty segment
+            dropped.incrementAndGet();
+            return true;
+        }
+
+        int offset = segment.reserve(length);
+
+        if (offset < 0) {
+            return false;
+        }
+
+        segment.write(offset, length, time, id, type, data, prefix);
+        records.incrementAndGet();
+
+        return true;
+    }
+
+    /**
+     * Creates a segment file, writes the definition of every topic into it, and publishes it as the current or next segment.
+     * The definitions and the publishing happen under the definition lock, so a topic that is created at the same time
+     * is either in the definitions or sees the published segment (and defines itself in it).
+     * @param prepared True to publish the segment as the next segment, false to publish it as the current segment.
+     * @throws IOException If the file cannot be created.
+     * */
+    private static void createSegment(boolean prepared) throws IOException {
+        Path path = directory.resolve(String.format("topica-%d-%05d.rec", runStarted, segmentCount++));
+        Segment segment = new Segment(path, segmentSize);
+
+        synchronized (definitionLock) {
+            Topica.Database database = Topica.getDatabase();
+            long time = System.nanoTime();
+
+            for (int id = 0; id < database.getIdCount(); id++) {
+                Topica.Database.Topic topic = database.getTopic(id);
+
+                if (topic != null) {
+                    appendTo(segment, time, id, DEFINITION_TYPE, topic.getPath().getBytes(StandardCharsets.UTF_8), topic.getType() & 0xFF);
+                }
+            }
+
+            if (prepared) {
+                next = segment;
+            } else {
+                current.set(segment);
+            }
+        }
+    }
+
+    /**
+     * The loop of the background thread: keeps the next segment ready, flushes and closes old segments, and deletes the oldest segments.
+     * */
+    private static void runWriter() {
+        long lastFlush = System.nanoTime();
+
+        while (running) {
+            if (next == null) {
+                try {
+                    createSegment(true);
+                    deleteOldSegments();
+                } catch (IOException e) {
+                    System.out.println("[WARNING] Could not create a flight recorder segment: " + e.getMessage());
+                }
+            }
+
+            Segment old;
+            while ((old = retired.poll()) != null) {
+                old.close();
+            }
+
+            if (System.nanoTime() - lastFlush >= FLUSH_INTERVAL) {
+                Segment segment = current.get();
+
+                if (segment != null) {
+                    segment.flush();
+                }
+
+                lastFlush = System.nanoTime();
+            }
+
+            LockSupport.parkNanos(FLUSH_INTERVAL);
+        }
+    }
+
+    /**
+     * Deletes the oldest segment files, of this run or earlier ones, so at most the max number of segments are kept in the directory.
+     * */
+    private static void deleteOldSegments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "topica-*-*.rec")) {
+            for (Path path : stream) {
+                if (segmentOrder(path) != null) {
+                    segments.add(path);
+                }
+            }
+        }
+
+        // oldest first: by the time the run started, then by the index of the segment in the run
+        segments.sort(Comparator.comparing(FlightRecorder::segmentOrder, Comparator.comparingLong((long[] order) -> order[0]).thenComparingLong((order) -> order[1])));
+
+        Segment active = current.get();
+        Segment prepared = next;
+
+        for (int i = 0; i < segments.size() - Math.max(maxSegments, 2); i++) {
+            Path path = segments.get(i);
+
+            if ((active != null && path.equals(active.path)) || (prepared != null && path.equals(prepared.path))) {
+                continue;
+            }
+
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * Gets the order of a segment file from its name ({@code topica-<run started>-<index>.rec}).
+     * @param path The path of the segment file.
+     * @return The time the run started and the index of the segment, or null if the file isn't a segment.
+     * */
+    private static long[] segmentOrder(Path path) {
+        String name = path.getFileName().toString();
+
+        int separator = name.lastIndexOf('-');
+
+        try {
+            return new long[] {
+                    Long.parseLong(name.substring("topica-".length(), separator)),
+                    Long.parseLong(name.substring(separator + 1, name.length() - ".rec".length()))
+            };
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads every record of a segment file.
+     * @param path The path of the segment file.
+     * @param consumer Called for every record, in order.
+     * @throws IOException If the file cannot be read, or is not a segment.
+     * */
+    public static void read(Path path, RecordConsumer consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a flight recorder segment: " + path);
+            }
+
+            long wallStart = buffer.getLong(8);
+            long nanoStart = buffer.getLong(16);
+
+            int offset = SEGMENT_HEADER_SIZE;
+
+            while (offset + RECORD_HEADER_SIZE <= buffer.limit()) {
+                int length = buffer.getInt(offset);
+
+                if (length <= 0) {
+                    break;
+                }
+
+                long time = buffer.getLong(offset + 4);
+                int id = buffer.getInt(offset + 12);
+                byte type = buffer.get(offset + 16);
+
+                byte[] data = new byte[buffer.getInt(offset + 17)];
+                for (int i = 0; i < data.length; i++) {
+                    data[i] = buffer.get(offset + RECORD_HEADER_SIZE + i);
+                }
+
+                consumer.accept(wallStart + TimeUnit.NANOSECONDS.toMillis(time - nanoStart), time, id, type, data);
+
+                offset += length;
+            }
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package me.autobot.lib.server.topica;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A fixed-capacity ring buffer of timestamped samples of a topic, so the recent values of a topic can be looked at after the fact.
+ * <p>
+ * Fixed-width types (shorts, ints, longs, floats, doubles and booleans) are stored as the raw bits of the value in a primitive array,
+ * so recording them does not allocate. Other types are stored as copies of their data, and are also bounded by a total number of bytes.
+ * When the history is full, the oldest samples are overwritten.
+ * */
+public class TopicHistory {
+    /**
+     * A timestamped sample of a topic.
+     * */
+    public static class Sample {
+        private final long timestamp;
+        private final byte[] data;
+
+        /**
+         * Creates a new sample.
+         * @param timestamp The time of the sample, in ms since the epoch.
+         * @param data The data of the topic at the time.
+         * */
+        public Sample(long timestamp, byte[] data) {
+            this.timestamp = timestamp;
+            this.data = data;
+        }
+
+        /**
+         * Gets the time of the sample.
+         * @return The time of the sample, in ms since the epoch.
+         * */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Gets the data of the sample.
+         * @return The data of the topic at the time of the sample.
+         * */
+        public byte[] getData() {
+            return data;
+        }
+    }
+
+    /**
+     * The most samples a history can keep, since the samples are allocated up front.
+     * */
+    public static final int MAX_CAPACITY = 100_000;
+
+    /**
+     * The most bytes of data a history of a type that isn't fixed-width can keep.
+     * */
+    public static final long MAX_BYTES = 16 * 1024 * 1024;
+
+    private final int capacity;
+    private final long maxBytes;
+
+    // the width of the values in bytes for fixed-width types, 0 for everything else
+    private final int width;
+
+    private final long[] timestamps;
+    private final long[] values;
+    private final byte[][] data;
+
+    // the index the next sample is written to
+    private int head = 0;
+    private int size = 0;
+
+    // the total number of bytes of data, for types that aren't fixed-width
+    private long bytes = 0;
+
+    /**
+     * Creates a new history.
+     * @param type The type of the topic.
+     * @param capacity The maximum number of samples to keep (clamped to 1 to {@value #MAX_CAPACITY}).
+     * @param maxBytes The maximum number of bytes of data to keep, for types that aren't fixed-width (clamped to {@value #MAX_BYTES}).
+     * */
+    public TopicHistory(byte type, int capacity, long maxBytes) {
+        this.capacity = Math.min(Math.max(capacity, 1), MAX_CAPACITY);
+        this.maxBytes = Math.min(Math.max(maxBytes, 0), MAX_BYTES);
+        this.width = widthOf(type);
+
+        this.timestamps = new long[this.capacity];
+
+        if (width > 0) {
+            this.values = new long[this.capacity];
+            this.data = null;
+        } else {
+            this.values = null;
+            this.data = new byte[this.capacity][];
+        }
+    }
+
+    /**
+     * Gets the width of the values of a type.
+     * @param type The type of the topic.
+     * @return The width of the values in bytes, or 0 if the type is not fixed-width.
+     * */
+    public static int widthOf(byte type) {
+        switch (type) {
+            case Topica.BOOLEAN_TYPE:
+                return 1;
+            case Topica.SHORT_TYPE:
+                return Short.BYTES;
+            case Topica.INT_TYPE:
+            case Topica.FLOAT_TYPE:
+                return Integer.BYTES;
+            case Topica.LONG_TYPE:
+            case Topica.DOUBLE_TYPE:
+                return Long.BYTES;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Records a sample.
+     * For fixed-width types, a value that isn't the width of the type is not recorded.
+     * @param timestamp The time of the sample, in ms since the epoch.
+     * @param value The data of the topic. This is copied (or decoded), so the array can be reused afterwards.
+     * */
+    public synchronized void record(long timestamp, byte[] value) {
+        if (width > 0) {
+            if (value.length != width) {
+                return;
+            }
+
+            long bits = 0;
+            for (int i = 0; i < width; i++) {
+                bits = bits << 8 | (value[i] & 0xFF);
+            }
+
+            timestamps[head] = timestamp;
+            values[head] = bits;
+
+            head = (head + 1) % capacity;
+            size = Math.min(size + 1, capacity);
+
+            return;
+        }
+
+        if (value.length > maxBytes) {
+            return;
+        }
+
+        // make space, both in samples and in bytes
+        if (size == capacity) {
+            dropOldest();
+        }
+
+        while (size > 0 && bytes + value.length > maxBytes) {
+            dropOldest();
+        }
+
+        timestamps[head] = timestamp;
+        data[head] = value.clone();
+        bytes += value.length;
+
+        head = (head + 1) % capacity;
+        size++;
+    }
+
+    /**
+     * Drops the oldest sample, for types that aren't fixed-width.
+     * */
+    private void dropOldest() {
+        int oldest = index(0);
+
+        bytes -= data[oldest].length;
+        data[oldest] = null;
+
+        size--;
+    }
+
+    /**
+     * Gets the index in the arrays of the nth oldest sample.
+     * @param n The position of the sample, 0 being the oldest.
+     * @return The index of the sample in the arrays.
+     * */
+    private int index(int n) {
+        return (head - size + n + capacity) % capacity;
+    }
+
+    /**
+     * Gets the nth oldest sample.
+     * @param n The position of the sample, 0 being the oldest.
+     * @return The sample.
+     * */
+    private Sample sample(int n) {
+        int index = index(n);
+
+        if (width == 0) {
+            return new Sample(timestamps[index], data[index]);
+        }
+
+        byte[] value = new byte[width];
+        long bits = values[index];
+
+        for (int i = width - 1; i >= 0; i--) {
+            value[i] = (byte) bits;
+            bits >>>= 8;
+        }
+
+        return new Sample(timestamps[index], value);
+    }
+
+    /**
+     * Gets the samples between two times.
+     * @param from The start of the range (inclusive), in ms since the epoch.
+     * @param to The end of the range (inclusive), in ms since the epoch.
+     * @return The samples in the range, oldest first.
+     * */
+    public synchronized List<Sample> getRange(long from, long to) {
+        List<Sample> samples = new ArrayList<>();
+
+        for (int n = 0; n < size; n++) {
+            long timestamp = timestamps[index(n)];
+
+            if (timestamp >= from && timestamp <= to) {
+                samples.add(sample(n));
+            }
+        }
+
+        return samples;
+    }
+
+    /**
+     * Gets the latest samples.
+     * @param count The maximum number of samples to get.
+     * @return The latest samples, oldest first.
+     * */
+    public synchronized List<Sample> getLast(int count) {
+        int start = Math.max(size - Math.max(count, 0), 0);
+
+        List<Sample> samples = new ArrayList<>(size - start);
+
+        for (int n = start; n < size; n++) {
+            samples.add(sample(n));
+        }
+
+        return samples;
+    }
+
+    /**
+     * Gets the number of samples in the history.
+     * @return The number of samples in the history.
+     * */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Gets the maximum number of samples in the history.
+     * @return The capacity of the history.
+     * */
+    public int getCapacity() {
+        return capacity;
+    }
+}
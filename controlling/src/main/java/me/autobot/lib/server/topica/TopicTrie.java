@@ -0,0 +1,228 @@
+package me.autobot.lib.server.topica;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * An index of topics by the segments of their paths (e.g. /gamepad1/leftX is gamepad1 -> leftX),
+ * used to find all of the topics that match a pattern without going over every topic.
+ * <p>
+ * Patterns are paths where a segment can be:
+ * <ul>
+ *     <li>{@code *}, which matches exactly one segment (e.g. /gamepad1/* matches /gamepad1/leftX but not /gamepad1/leftX/raw).</li>
+ *     <li>{@code **}, which matches one or more segments, and can only be the last segment (e.g. /robot/** matches everything under /robot).</li>
+ * </ul>
+ * */
+public class TopicTrie {
+    /**
+     * The segment that matches exactly one segment.
+     * */
+    public static final String SINGLE_WILDCARD = "*";
+
+    /**
+     * The segment that matches one or more segments.
+     * */
+    public static final String MULTI_WILDCARD = "**";
+
+    /**
+     * A node of the trie, one per path segment.
+     * */
+    private static class Node {
+        private final ConcurrentHashMap<String, Node> children = new ConcurrentHashMap<>();
+        private volatile Topica.Database.Topic topic;
+    }
+
+    private final Node root = new Node();
+
+    /**
+     * Creates a new, empty topic trie.
+     * */
+    public TopicTrie() {
+
+    }
+
+    /**
+     * Checks if a path is a pattern (contains a wildcard segment).
+     * @param path The path to check.
+     * @return True if the path contains a wildcard segment, false otherwise.
+     * */
+    public static boolean isPattern(String path) {
+        for (String segment : segments(path)) {
+            if (segment.equals(SINGLE_WILDCARD) || segment.equals(MULTI_WILDCARD)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Checks if a pattern is valid, that is, that ** is only used as the last segment.
+     * @param pattern The pattern to check.
+     * @return True if the pattern is valid, false otherwise.
+     * */
+    public static boolean isValidPattern(String pattern) {
+        String[] segments = segments(pattern);
+
+        for (int i = 0; i < segments.length - 1; i++) {
+            if (segments[i].equals(MULTI_WILDCARD)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Checks if a path matches a pattern.
+     * @param pattern The pattern to match against.
+     * @param path The path to check.
+     * @return True if the path matches the pattern, false otherwise.
+     * */
+    public static boolean matches(String pattern, String path) {
+        String[] patternSegments = segments(pattern);
+        String[] pathSegments = segments(path);
+
+        for (int i = 0; i < patternSegments.length; i++) {
+            if (patternSegments[i].equals(MULTI_WILDCARD)) {
+                return pathSegments.length > i;
+            }
+
+            if (i >= pathSegments.length) {
+                return false;
+            }
+
+            if (!patternSegments[i].equals(SINGLE_WILDCARD) && !patternSegments[i].equals(pathSegments[i])) {
+                return false;
+            }
+        }
+
+        return patternSegments.length == pathSegments.length;
+    }
+
+    /**
+     * Adds a topic to the trie, replacing any topic with the same path.
+     * @param topic The topic to add.
+     * */
+    public void put(Topica.Database.Topic topic) {
+        Node node = root;
+
+        for (String segment : segments(topic.getPath())) {
+            node = node.children.computeIfAbsent(segment, (key) -> new Node());
+        }
+
+        node.topic = topic;
+    }
+
+    /**
+     * Removes a topic from the trie, if it is the topic at its path.
+     * The (now empty) nodes are kept, since topics are rarely removed and are often added back under the same path.
+     * @param topic The topic to remove.
+     * */
+    public void remove(Topica.Database.Topic topic) {
+        Node node = root;
+
+        for (String segment : segments(topic.getPath())) {
+            node = node.children.get(segment);
+
+            if (node == null) {
+                return;
+            }
+        }
+
+        if (node.topic == topic) {
+            node.topic = null;
+        }
+    }
+
+    /**
+     * Runs an action for every topic that matches a pattern.
+     * Only the branches of the trie that can match are visited.
+     * @param pattern The pattern to match.
+     * @param action The action to run for every matching topic.
+     * */
+    public void forEachMatch(String pattern, Consumer<Topica.Database.Topic> action) {
+        match(root, segments(pattern), 0, action);
+    }
+
+    /**
+     * Gets all of the topics that match a pattern.
+     * @param pattern The pattern to match.
+     * @return The matching topics.
+     * */
+    public List<Topica.Database.Topic> getMatches(String pattern) {
+        List<Topica.Database.Topic> matches = new ArrayList<>();
+        forEachMatch(pattern, matches::add);
+
+        return matches;
+    }
+
+    /**
+     * Matches the rest of a pattern from a node.
+     * @param node The node to match from.
+     * @param segments The segments of the pattern.
+     * @param index The index of the segment to match the children of the node against.
+     * @param action The action to run for every matching topic.
+     * */
+    private static void match(Node node, String[] segments, int index, Consumer<Topica.Database.Topic> action) {
+        if (index == segments.length) {
+            Topica.Database.Topic topic = node.topic;
+
+            if (topic != null) {
+                action.accept(topic);
+            }
+
+            return;
+        }
+
+        String segment = segments[index];
+
+        if (segment.equals(MULTI_WILDCARD)) {
+            for (Node child : node.children.values()) {
+                forEachBelow(child, action);
+            }
+        } else if (segment.equals(SINGLE_WILDCARD)) {
+            for (Node child : node.children.values()) {
+                match(child, segments, index + 1, action);
+            }
+        } else {
+            Node child = node.children.get(segment);
+
+            if (child != null) {
+                match(child, segments, index + 1, action);
+            }
+        }
+    }
+
+    /**
+     * Runs an action for the topic of a node and every topic below it.
+     * @param node The node to start from.
+     * @param action The action to run for every topic.
+     * */
+    private static void forEachBelow(Node node, Consumer<Topica.Database.Topic> action) {
+        Topica.Database.Topic topic = node.topic;
+
+        if (topic != null) {
+            action.accept(topic);
+        }
+
+        for (Node child : node.children.values()) {
+            forEachBelow(child, action);
+        }
+    }
+
+    /**
+     * Splits a path into its segments, ignoring the leading slash.
+     * @param path The path to split.
+     * @return The segments of the path.
+     * */
+    private static String[] segments(String path) {
+        if (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+
+        return path.split("/", -1);
+    }
+}
@@ -2,18 +2,30 @@ package me.autobot.lib.server.topica;
 
 import fi.iki.elonen.NanoHTTPD;
 import fi.iki.elonen.NanoWSD;
-import kotlin.Pair;
-import me.autobot.lib.math.Mathf;
+import me.autobot.lib.server.OutboundQueue;
 import me.autobot.lib.tools.lambdas.*;
 import me.autobot.lib.tools.suppliers.*;
 
 import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BooleanSupplier;
 import java.util.function.DoubleSupplier;
+import java.util.function.Function;
 import java.util.function.IntSupplier;
 import java.util.function.LongSupplier;
+import java.util.function.Supplier;
 
 
 /**
@@ -26,8 +38,32 @@ public class Topica extends NanoWSD.WebSocket {
     private static final byte GET_RESPONSE = 0b0001;
     private static final byte SET_RESPONSE = 0b0010;
     private static final byte SUBSCRIBE_RESPONSE = 0b0011;
+    private static final byte RESOLVE_RESPONSE = 0b0100;
+    private static final byte GET_ID_RESPONSE = 0b0101;
+    private static final byte SET_ID_RESPONSE = 0b0110;
+    private static final byte SUBSCRIBE_ID_RESPONSE = 0b0111;
+
+    private static final byte BATCH_RESPONSE = 0b0000;
 
     private static final byte RESPONSE_FLAG = 0b1000;
+    private static final byte ID_RESPONSE_FLAG = RESPONSE_FLAG | 0b0001;
+    private static final byte BATCH_RESPONSE_FLAG = RESPONSE_FLAG | 0b0010;
+    private static final byte RESOLVE_RESPONSE_FLAG = RESPONSE_FLAG | RESOLVE_RESPONSE;
+
+    // the 4 lsb of the first byte of a batch frame
+    private static final byte BATCH_GET = 0b0000;
+    private static final byte BATCH_SET = 0b0001;
+    private static final byte BATCH_GET_ID = 0b0010;
+    private static final byte BATCH_SET_ID = 0b0011;
+    private static final byte BATCH_CHANGES = 0b0100;
+    private static final byte BATCH_HISTORY = 0b0101;
+
+    // the query of a history request
+    private static final byte HISTORY_RANGE = 0x00;
+    private static final byte HISTORY_LAST = 0x01;
+
+    // the count of a batch is 2 bytes
+    private static final int MAX_BATCH_SIZE = 0xFFFF;
 
     private static final long PING_TIME = 500; //ms
 
@@ -69,11 +105,29 @@ public class Topica extends NanoWSD.WebSocket {
      * */
     public static final byte CUSTOM_TYPE = 0x09;
 
+    /**
+     * The topic with the default number of samples kept by a topic history.
+     * */
+    public static final String HISTORY_CAPACITY_TOPIC = "/topica/history/capacity";
+    /**
+     * The topic with the default maximum number of bytes kept by the history of a topic that isn't a fixed-width type.
+     * */
+    public static final String HISTORY_MAX_BYTES_TOPIC = "/topica/history/max_bytes";
+    /**
+     * The topic with a comma separated list of paths (or patterns) of the topics to keep a history of.
+     * */
+    public static final String HISTORY_TOPICS_TOPIC = "/topica/history/topics";
+
+    private static final int DEFAULT_HISTORY_CAPACITY = 1000;
+    private static final int DEFAULT_HISTORY_MAX_BYTES = 1024 * 1024;
+
     private static Database database;
     private static Server server;
 
     private static int port = DEFAULT_PORT;
 
+    private static boolean record = true;
+
     /**
      * Assigns the port to a custom port.
      * @param port The port to start the server on.
@@ -82,12 +136,22 @@ public class Topica extends NanoWSD.WebSocket {
         Topica.port = port;
     }
 
+    /**
+     * Sets whether every topic update is recorded to disk by the {@link FlightRecorder}, which is on by default.
+     * This needs to be called before `Robot.start()`.
+     * @param record True to record the topic updates, false otherwise.
+     * */
+    public static void record(boolean record) {
+        Topica.record = record;
+    }
+
     /**
      * Returns true or false depending on if the verbose setting is on.
      * @return If the Topica server is verbose, using /topica/verbose.
      * */
     protected static boolean isVerbose() {
-        return database.hasTopic("/topica/verbose") && database.getTopic("/topica/verbose").getAsBoolean();
+        Database.Topic verbose = getDatabase().getTopic("/topica/verbose");
+        return verbose != null && verbose.getAsBoolean();
     }
 
     /**
@@ -100,8 +164,10 @@ public class Topica extends NanoWSD.WebSocket {
             createDatabase();
         }
 
-        if (database.hasTopic(path)) {
-            return database.getTopic(path);
+        Database.Topic topic = database.getTopic(path);
+
+        if (topic != null) {
+            return topic;
         }
 
         return new Database.Topic(path, type, new byte[0]);
@@ -132,6 +198,18 @@ public class Topica extends NanoWSD.WebSocket {
         * REST Api Port: The port of the REST API.
          */
         new Database.Topic("/topica/rest_port", 8081);
+        /*
+         * Scheduled Tasks: The number of live periodic tasks (bindings, timed subscriptions, pings) in the Topica scheduler.
+         */
+        new Database.Topic(TopicaScheduler.TASK_COUNT_TOPIC, TopicaScheduler.getTaskCount());
+        /*
+         * History: how many samples (and, for non-numeric topics, bytes) a topic history keeps, and which topics keep one.
+         */
+        new Database.Topic(HISTORY_CAPACITY_TOPIC, DEFAULT_HISTORY_CAPACITY);
+        new Database.Topic(HISTORY_MAX_BYTES_TOPIC, DEFAULT_HISTORY_MAX_BYTES);
+        new Database.Topic(HISTORY_TOPICS_TOPIC, "").addCallback((topic) -> database.applyHistoryConfig());
+
+        database.addCreationCallback(database::applyHistoryConfig);
     }
 
     /**
@@ -145,6 +223,10 @@ public class Topica extends NanoWSD.WebSocket {
         } catch (IOException e) {
             e.printStackTrace();
         }
+
+        if (record) {
+            FlightRecorder.start();
+        }
     }
 
     /**
@@ -230,25 +312,49 @@ public class Topica extends NanoWSD.WebSocket {
                 public void onUpdate(Topic topic);
             }
 
+            // big-endian views over a byte array, so fixed-width values can be encoded and decoded in place
+            private static final VarHandle SHORT_VIEW = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+            private static final VarHandle INT_VIEW = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+            private static final VarHandle LONG_VIEW = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+            private static final VarHandle FLOAT_VIEW = MethodHandles.byteArrayViewVarHandle(float[].class, ByteOrder.BIG_ENDIAN);
+            private static final VarHandle DOUBLE_VIEW = MethodHandles.byteArrayViewVarHandle(double[].class, ByteOrder.BIG_ENDIAN);
+
             private String path;
+
+            // guarded by this, since values are written in place and a reader shouldn't see half of an update
             private byte[] data;
+            // whether data is a buffer the topic allocated itself (and can overwrite), rather than an array that was handed to it
+            private boolean ownsData = false;
+
+            // assigned by the database when the topic is added, -1 for topics that aren't in the database
+            private volatile int id = -1;
+
+            // the database version of the last change
+            private volatile long version = 0;
+
+            // null unless history is enabled for the topic
+            private volatile TopicHistory history;
+            // whether the history was enabled by /topica/history/topics, rather than from the code
+            private volatile boolean historyFromConfig = false;
 
             private byte type;
 
-            private ArrayList<UpdateCallback> callbacks;
+            // copy-on-write, since subscriptions are added and removed from the websocket threads while updates run
+            private CopyOnWriteArrayList<UpdateCallback> callbacks;
 
-            private TimerTask updateTask;
-            private Timer updateTimer;
+            private ScheduledFuture<?> bindTask;
             private long updateTime = 100; //ms
 
-            private List<ObjectLambda> internalSubscriptions = new ArrayList<>();
+            private List<ObjectLambda> internalSubscriptions = new CopyOnWriteArrayList<>();
 
             /**
              * "Notifies" that a new topic has been created
              * */
             private void creationNotice() {
-                if (Topica.getDatabase().hasTopic("/topica/last_topic_created")) {
-                    Topica.getDatabase().getTopic("/topica/last_topic_created").update(System.currentTimeMillis());
+                Topic lastCreated = Topica.getDatabase().getTopic("/topica/last_topic_created");
+
+                if (lastCreated != null) {
+                    lastCreated.update(System.currentTimeMillis());
                 }
             }
 
@@ -264,7 +370,7 @@ public class Topica extends NanoWSD.WebSocket {
                 this.data = data;
                 this.type = type;
 
-                callbacks = new ArrayList<>();
+                callbacks = new CopyOnWriteArrayList<>();
 
                 if (Topica.getDatabase() != null) {
                     Topica.getDatabase().addTopic(this);
@@ -283,9 +389,9 @@ public class Topica extends NanoWSD.WebSocket {
                 this.data = data;
                 this.type = type;
 
-                callbacks = new ArrayList<>();
+                callbacks = new CopyOnWriteArrayList<>();
 
-                creationNotice();
+                // not announced in /topica/last_topic_created, since it never becomes part of the database
             }
 
             /**
@@ -294,11 +400,7 @@ public class Topica extends NanoWSD.WebSocket {
              * @param data The data of the topic as an int.
              */
             public Topic(String path, int data) {
-                this(path, INT_TYPE, new byte[0]);
-
-                ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES);
-                buffer.putInt(data);
-                this.data = buffer.array();
+                this(path, INT_TYPE, ByteBuffer.allocate(Integer.BYTES).putInt(data).array());
             }
 
             /**
@@ -307,11 +409,7 @@ public class Topica extends NanoWSD.WebSocket {
              * @param data The data of the topic as a long.
              */
             public Topic(String path, long data) {
-                this(path, LONG_TYPE, new byte[0]);
-
-                ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
-                buffer.putLong(data);
-                this.data = buffer.array();
+                this(path, LONG_TYPE, ByteBuffer.allocate(Long.BYTES).putLong(data).array());
             }
 
             /**
@@ -320,11 +418,7 @@ public class Topica extends NanoWSD.WebSocket {
              * @param data The data of the topic as a float.
              */
             public Topic(String path, float data) {
-                this(path, FLOAT_TYPE, new byte[0]);
-
-                ByteBuffer buffer = ByteBuffer.allocate(Float.BYTES);
-                buffer.putFloat(data);
-                this.data = buffer.array();
+                this(path, FLOAT_TYPE, ByteBuffer.allocate(Float.BYTES).putFloat(data).array());
             }
 
             /**
@@ -333,11 +427,7 @@ public class Topica extends NanoWSD.WebSocket {
              * @param data The data of the topic as a double.
              */
             public Topic(String path, double data) {
-                this(path, DOUBLE_TYPE, new byte[0]);
-
-                ByteBuffer buffer = ByteBuffer.allocate(Double.BYTES);
-                buffer.putDouble(data);
-                this.data = buffer.array();
+                this(path, DOUBLE_TYPE, ByteBuffer.allocate(Double.BYTES).putDouble(data).array());
             }
 
             /**
@@ -346,9 +436,7 @@ public class Topica extends NanoWSD.WebSocket {
              * @param data The data of the topic as a string.
              */
             public Topic(String path, String data) {
-                this(path, STRING_TYPE, new byte[0]);
-
-                this.data = data.getBytes();
+                this(path, STRING_TYPE, data.getBytes());
             }
 
             /**
@@ -357,17 +445,7 @@ public class Topica extends NanoWSD.WebSocket {
              * @param data The data of the topic as a boolean.
              */
             public Topic(String path, boolean data) {
-                this.path = path;
-                this.type = BOOLEAN_TYPE;
-                this.data = new byte[] { (byte) (data ? 1 : 0) };
-
-                callbacks = new ArrayList<>();
-
-                if (Topica.getDatabase() != null) {
-                    Topica.getDatabase().addTopic(this);
-                }
-
-                creationNotice();
+                this(path, BOOLEAN_TYPE, new byte[] { (byte) (data ? 1 : 0) });
             }
 
             /**
@@ -376,9 +454,7 @@ public class Topica extends NanoWSD.WebSocket {
              * @param data The data of the topic as a custom encodeable topic.
              */
             public Topic(String path, EncodeableTopic data) {
-                this(path, CUSTOM_TYPE, new byte[0]);
-
-                this.data = data.encode();
+                this(path, CUSTOM_TYPE, data.encode());
             }
 
             /**
@@ -405,56 +481,88 @@ public class Topica extends NanoWSD.WebSocket {
                 return path;
             }
 
+            /**
+             * Gets the ID of the topic.
+             * This is assigned by the database when the topic is added, and stays the same for the lifetime of the database.
+             * @return The ID of the topic, or -1 if the topic is not part of the database.
+             * */
+            public int getId() {
+                return id;
+            }
+
             /**
              * Gets the data of the topic as a byte array.
+             * <p>
+             * The topic reuses its buffer between updates of the same length (e.g. every update of an int or double topic),
+             * so the returned array is overwritten in place by later updates.
+             * Copy it if the value needs to be kept, or use the getAs methods to read a single value.
              * @return The data of the topic as a byte array.
              */
-            public byte[] getData() {
+            public synchronized byte[] getData() {
+                return data;
+            }
+
+            /**
+             * Gets the buffer to write a value of the given width into, reusing the current one if it is the same width.
+             * Must be called while holding the lock of the topic.
+             * @param width The width of the value in bytes.
+             * @return The buffer to write into.
+             * */
+            private byte[] buffer(int width) {
+                if (!ownsData || data.length != width) {
+                    data = new byte[width];
+                    ownsData = true;
+                }
+
                 return data;
             }
 
             // for all types, assume that the data is the raw bytes of that type
+            /**
+             * Gets the data of the topic as a short.
+             * @return The data of the topic as a short.
+             * */
+            public synchronized short getAsShort() {
+                return (short) SHORT_VIEW.get(data, 0);
+            }
+
             /***
              * Gets the data of the topic as an int.
              * @return The data of the topic as an int.
              */
-            public int getAsInt() {
-                ByteBuffer buffer = ByteBuffer.wrap(data);
-                return buffer.getInt();
+            public synchronized int getAsInt() {
+                return (int) INT_VIEW.get(data, 0);
             }
 
             /***
              * Gets the data of the topic as a long.
              * @return The data of the topic as a long.
              */
-            public long getAsLong() {
-                ByteBuffer buffer = ByteBuffer.wrap(data);
-                return buffer.getLong();
+            public synchronized long getAsLong() {
+                return (long) LONG_VIEW.get(data, 0);
             }
 
             /**
              * Gets the data of the topic as a float.
              * @return The data of the topic as a float.
              * */
-            public float getAsFloat() {
-                ByteBuffer buffer = ByteBuffer.wrap(data);
-                return buffer.getFloat();
+            public synchronized float getAsFloat() {
+                return (float) FLOAT_VIEW.get(data, 0);
             }
 
             /**
              * Gets the data of the topic as a double.
              * @return The data of the topic as a double.
              * */
-            public double getAsDouble() {
-                ByteBuffer buffer = ByteBuffer.wrap(data);
-                return buffer.getDouble();
+            public synchronized double getAsDouble() {
+                return (double) DOUBLE_VIEW.get(data, 0);
             }
 
             /**
              * Gets the data of the topic as a string.
              * @return The data of the topic as a string.
              * */
-            public String getAsString() {
+            public synchronized String getAsString() {
                 return new String(data);
             }
 
@@ -462,7 +570,7 @@ public class Topica extends NanoWSD.WebSocket {
              * Gets the data of the topic as a boolean.
              * @return The data of the topic as a boolean.
              * */
-            public boolean getAsBoolean() {
+            public synchronized boolean getAsBoolean() {
                 return data[0] == 1;
             }
 
@@ -471,9 +579,10 @@ public class Topica extends NanoWSD.WebSocket {
              * @param data The new data.
              * */
             public void update(int data) {
-                ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES);
-                buffer.putInt(data);
-                this.data = buffer.array();
+                synchronized (this) {
+                    INT_VIEW.set(buffer(Integer.BYTES), 0, data);
+                    touch();
+                }
 
                 runCallbacks();
                 runInternalSubscriptions();
@@ -484,9 +593,10 @@ public class Topica extends NanoWSD.WebSocket {
              * @param data The new data.
              * */
             public void update(long data) {
-                ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
-                buffer.putLong(data);
-                this.data = buffer.array();
+                synchronized (this) {
+                    LONG_VIEW.set(buffer(Long.BYTES), 0, data);
+                    touch();
+                }
 
                 runCallbacks();
                 runInternalSubscriptions();
@@ -497,9 +607,10 @@ public class Topica extends NanoWSD.WebSocket {
              * @param data The new data.
              * */
             public void update(float data) {
-                ByteBuffer buffer = ByteBuffer.allocate(Float.BYTES);
-                buffer.putFloat(data);
-                this.data = buffer.array();
+                synchronized (this) {
+                    FLOAT_VIEW.set(buffer(Float.BYTES), 0, data);
+                    touch();
+                }
 
                 runCallbacks();
                 runInternalSubscriptions();
@@ -510,9 +621,10 @@ public class Topica extends NanoWSD.WebSocket {
              * @param data The new data.
              * */
             public void update(double data) {
-                ByteBuffer buffer = ByteBuffer.allocate(Double.BYTES);
-                buffer.putDouble(data);
-                this.data = buffer.array();
+                synchronized (this) {
+                    DOUBLE_VIEW.set(buffer(Double.BYTES), 0, data);
+                    touch();
+                }
 
                 runCallbacks();
                 runInternalSubscriptions();
@@ -523,7 +635,13 @@ public class Topica extends NanoWSD.WebSocket {
              * @param data The new data.
              */
             public void update(String data) {
-                this.data = data.getBytes();
+                byte[] bytes = data.getBytes();
+
+                synchronized (this) {
+                    this.data = bytes;
+                    this.ownsData = true;
+                    touch();
+                }
 
                 runCallbacks();
                 runInternalSubscriptions();
@@ -534,7 +652,10 @@ public class Topica extends NanoWSD.WebSocket {
              * @param data The new data.
              * */
             public void update(boolean data) {
-                this.data = new byte[] { (byte) (data ? 1 : 0) };
+                synchronized (this) {
+                    buffer(1)[0] = (byte) (data ? 1 : 0);
+                    touch();
+                }
 
                 runCallbacks();
                 runInternalSubscriptions();
@@ -542,47 +663,211 @@ public class Topica extends NanoWSD.WebSocket {
 
             /**
              * Updates the data of the topic.
+             * If the new data is the same length as the current data, it is copied into the current buffer,
+             * so later changes to the given array don't change the topic.
              * @param data The new data.
              * */
             public void update(byte[] data) {
-                this.data = data;
+                write(data);
+
+                runCallbacks();
+                runInternalSubscriptions();
+            }
+
+            /**
+             * Updates the data of the topic with the remaining bytes of a buffer, which are consumed.
+             * The bytes are copied straight into the current buffer of the topic if it is the same length.
+             * @param data The new data.
+             * */
+            public void update(ByteBuffer data) {
+                write(data);
 
                 runCallbacks();
                 runInternalSubscriptions();
             }
 
+            /**
+             * Writes the data of the topic from a buffer without notifying the callbacks or subscriptions.
+             * @param data The new data, the remaining bytes of which are consumed.
+             * */
+            private synchronized void write(ByteBuffer data) {
+                data.get(buffer(data.remaining()));
+                touch();
+            }
+
+            /**
+             * Writes the data of the topic without notifying the callbacks or subscriptions.
+             * Used by batch sets, which write every topic before notifying any of them.
+             * @param data The new data.
+             * */
+            private synchronized void write(byte[] data) {
+                if (ownsData && this.data.length == data.length) {
+                    System.arraycopy(data, 0, this.data, 0, data.length);
+                } else {
+                    this.data = data;
+                    this.ownsData = false;
+                }
+
+                touch();
+            }
+
+            /**
+             * Marks the topic as changed, giving it the next version of the database if it is part of the database.
+             * Must be called while holding the lock of the topic, so the version and data change together.
+             * */
+            private void touch() {
+                // topics outside the database (e.g. the /me/ topics made for a GET) don't move the version, since CHANGES can't return them
+                if (id >= 0) {
+                    version = Topica.getDatabase().nextVersion();
+                }
+
+                FlightRecorder.record(id, type, data);
+
+                TopicHistory history = this.history;
+
+                if (history != null) {
+                    history.record(System.currentTimeMillis(), data);
+                }
+            }
+
+            /**
+             * Enables keeping a history of the values of the topic, with the capacity set in /topica/history/capacity.
+             * Does nothing if the history is already enabled.
+             * */
+            public void enableHistory() {
+                enableHistory(false);
+            }
+
+            /**
+             * Enables keeping a history of the values of the topic, with the settings in the config topics.
+             * The settings are read before taking the lock of this topic, so the locks of two topics are never held together
+             * (the config topics can have a history themselves).
+             * @param fromConfig Whether the history is enabled because the topic matches /topica/history/topics.
+             * */
+            private void enableHistory(boolean fromConfig) {
+                Database database = Topica.getDatabase();
+
+                int capacity = historyConfig(database.getTopic(HISTORY_CAPACITY_TOPIC), DEFAULT_HISTORY_CAPACITY, TopicHistory.MAX_CAPACITY);
+                int maxBytes = historyConfig(database.getTopic(HISTORY_MAX_BYTES_TOPIC), DEFAULT_HISTORY_MAX_BYTES, (int) TopicHistory.MAX_BYTES);
+
+                enableHistory(capacity, maxBytes, fromConfig);
+            }
+
+            /**
+             * Reads a history setting from its config topic, which any client can set.
+             * @param topic The config topic, or null if it doesn't exist.
+             * @param fallback The value to use if the topic doesn't exist or isn't a valid int.
+             * @param max The largest value allowed.
+             * @return The setting, from 1 to the max.
+             * */
+            private static int historyConfig(Topic topic, int fallback, int max) {
+                if (topic == null) {
+                    return fallback;
+                }
+
+                synchronized (topic) {
+                    if (topic.getType() != INT_TYPE || topic.getData().length < Integer.BYTES) {
+                        return fallback;
+                    }
+
+                    return Math.min(Math.max(topic.getAsInt(), 1), max);
+                }
+            }
+
+            /**
+             * Enables keeping a history of the values of the topic.
+             * Does nothing if the history is already enabled.
+             * @param capacity The maximum number of samples to keep.
+             * @param maxBytes The maximum number of bytes of data to keep, for topics that aren't a fixed-width type (e.g. strings or byte lists).
+             * */
+            public void enableHistory(int capacity, long maxBytes) {
+                enableHistory(capacity, maxBytes, false);
+            }
+
+            /**
+             * Enables keeping a history of the values of the topic, if it isn't already enabled.
+             * @param capacity The maximum number of samples to keep.
+             * @param maxBytes The maximum number of bytes of data to keep.
+             * @param fromConfig Whether the history is enabled because the topic matches /topica/history/topics.
+             * */
+            private synchronized void enableHistory(int capacity, long maxBytes, boolean fromConfig) {
+                if (history != null) {
+                    return;
+                }
+
+                history = new TopicHistory(type, capacity, maxBytes);
+                history.record(System.currentTimeMillis(), data);
+
+                historyFromConfig = fromConfig;
+            }
+
+            /**
+             * Enables the history of the topic because it matches /topica/history/topics, if it isn't already enabled.
+             * */
+            private void enableHistoryFromConfig() {
+                if (history != null) {
+                    return;
+                }
+
+                enableHistory(true);
+            }
+
+            /**
+             * Stops keeping a history of the values of the topic, and drops the history.
+             * */
+            public synchronized void disableHistory() {
+                history = null;
+                historyFromConfig = false;
+            }
+
+            /**
+             * Gets the history of the values of the topic.
+             * @return The history of the topic, or null if it is not enabled.
+             * */
+            public TopicHistory getHistory() {
+                return history;
+            }
+
+            /**
+             * Gets the version of the database at which the topic was last changed (or created).
+             * @return The version at which the topic last changed, or 0 if it is not part of the database and has never changed.
+             * @see Database#getVersion()
+             * */
+            public long getVersion() {
+                return version;
+            }
+
             protected void runInternalSubscriptions() {
+                if (internalSubscriptions.isEmpty()) {
+                    return;
+                }
+
                 // run general since byte data might just be updated
                 for (ObjectLambda lambda : internalSubscriptions) {
                     switch (type) {
                         case BYTE_TYPE:
-                            ((ByteLambda) lambda).run(data[0]);
+                            ((ByteLambda) lambda).run(getData()[0]);
                             break;
                         case SHORT_TYPE:
-                            ByteBuffer buffer = ByteBuffer.wrap(data);
-                            ((ShortLambda) lambda).run(buffer.getShort());
+                            ((ShortLambda) lambda).run(getAsShort());
                             break;
                         case INT_TYPE:
-                            ByteBuffer buffer2 = ByteBuffer.wrap(data);
-                            ((IntegerLambda) lambda).run(buffer2.getInt());
+                            ((IntegerLambda) lambda).run(getAsInt());
                             break;
                         case LONG_TYPE:
-                            ByteBuffer buffer3 = ByteBuffer.wrap(data);
-                            ((LongLambda) lambda).run(buffer3.getLong());
+                            ((LongLambda) lambda).run(getAsLong());
                             break;
                         case FLOAT_TYPE:
-                            ByteBuffer buffer4 = ByteBuffer.wrap(data);
-                            ((FloatLambda) lambda).run(buffer4.getFloat());
+                            ((FloatLambda) lambda).run(getAsFloat());
                             break;
                         case DOUBLE_TYPE:
-                            ByteBuffer buffer5 = ByteBuffer.wrap(data);
-                            ((DoubleLambda) lambda).run(buffer5.getDouble());
+                            ((DoubleLambda) lambda).run(getAsDouble());
                             break;
                         case STRING_TYPE:
-                            ((StringLambda) lambda).run(new String(data));
+                            ((StringLambda) lambda).run(getAsString());
                             break;
                         case BOOLEAN_TYPE:
-                            ((BooleanLambda) lambda).run(data[0] == 1);
+                            ((BooleanLambda) lambda).run(getAsBoolean());
                             break;
                     }
                 }
@@ -604,7 +889,7 @@ public class Topica extends NanoWSD.WebSocket {
              * @return The data of the topic as a custom encodeable topic.
              * */
             public <T extends EncodeableTopic> T getEncodeable() {
-                EncodeableTopic topic = EncodeableTopic.decode(data);
+                EncodeableTopic topic = EncodeableTopic.decode(getData());
                 return (T) topic;
             }
 
@@ -628,9 +913,9 @@ public class Topica extends NanoWSD.WebSocket {
              * Cancels any previous binding if it exists.
              * */
             private void cancelPreviousBindingIfExists() {
-                if (updateTask != null) {
-                    updateTask.cancel();
-                    updateTimer.cancel();
+                if (bindTask != null) {
+                    TopicaScheduler.cancel(this, bindTask);
+                    bindTask = null;
                 }
             }
 
@@ -641,22 +926,16 @@ public class Topica extends NanoWSD.WebSocket {
             public void bind(ByteSupplier supplier) {
                 cancelPreviousBindingIfExists();
 
-                updateTask = new TimerTask() {
-                    @Override
-                    public void run() {
-                        Byte[] bytes = supplier.get();
-
-                        byte[] data = new byte[bytes.length];
-                        for (int i = 0; i < bytes.length; i++) {
-                            data[i] = bytes[i];
-                        }
+                bindTask = TopicaScheduler.scheduleWithFixedDelay(this, () -> {
+                    Byte[] bytes = supplier.get();
 
-                        update(data);
+                    byte[] data = new byte[bytes.length];
+                    for (int i = 0; i < bytes.length; i++) {
+                        data[i] = bytes[i];
                     }
-                };
 
-                updateTimer = new Timer();
-                updateTimer.schedule(updateTask, 0, updateTime);
+                    update(data);
+                }, 0, updateTime, TimeUnit.MILLISECONDS);
             }
 
             /**
@@ -666,15 +945,9 @@ public class Topica extends NanoWSD.WebSocket {
             public void bind(ShortSupplier supplier) {
                 cancelPreviousBindingIfExists();
 
-                updateTask = new TimerTask() {
-                    @Override
-                    public void run() {
-                        update(supplier.get());
-                    }
-                };
-
-                updateTimer = new Timer();
-                updateTimer.schedule(updateTask, 0, updateTime);
+                bindTask = TopicaScheduler.scheduleWithFixedDelay(this, () -> {
+                    update(supplier.get());
+                }, 0, updateTime, TimeUnit.MILLISECONDS);
             }
 
             /**
@@ -684,15 +957,9 @@ public class Topica extends NanoWSD.WebSocket {
             public void bind(IntSupplier supplier) {
                 cancelPreviousBindingIfExists();
 
-                updateTask = new TimerTask() {
-                    @Override
-                    public void run() {
-                        update(supplier.getAsInt());
-                    }
-                };
-
-                updateTimer = new Timer();
-                updateTimer.schedule(updateTask, 0, updateTime);
+                bindTask = TopicaScheduler.scheduleWithFixedDelay(this, () -> {
+                    update(supplier.getAsInt());
+                }, 0, updateTime, TimeUnit.MILLISECONDS);
             }
 
             /**
@@ -702,15 +969,9 @@ public class Topica extends NanoWSD.WebSocket {
             public void bind(LongSupplier supplier) {
                 cancelPreviousBindingIfExists();
 
-                updateTask = new TimerTask() {
-                    @Override
-                    public void run() {
-                        update(supplier.getAsLong());
-                    }
-                };
-
-                updateTimer = new Timer();
-                updateTimer.schedule(updateTask, 0, updateTime);
+                bindTask = TopicaScheduler.scheduleWithFixedDelay(this, () -> {
+                    update(supplier.getAsLong());
+                }, 0, updateTime, TimeUnit.MILLISECONDS);
             }
 
             /**
@@ -720,15 +981,9 @@ public class Topica extends NanoWSD.WebSocket {
             public void bind(FloatSupplier supplier) {
                 cancelPreviousBindingIfExists();
 
-                updateTask = new TimerTask() {
-                    @Override
-                    public void run() {
-                        update(supplier.get());
-                    }
-                };
-
-                updateTimer = new Timer();
-                updateTimer.schedule(updateTask, 0, updateTime);
+                bindTask = TopicaScheduler.scheduleWithFixedDelay(this, () -> {
+                    update(supplier.get());
+                }, 0, updateTime, TimeUnit.MILLISECONDS);
             }
 
             /**
@@ -738,15 +993,9 @@ public class Topica extends NanoWSD.WebSocket {
             public void bind(DoubleSupplier supplier) {
                 cancelPreviousBindingIfExists();
 
-                updateTask = new TimerTask() {
-                    @Override
-                    public void run() {
-                        update(supplier.getAsDouble());
-                    }
-                };
-
-                updateTimer = new Timer();
-                updateTimer.schedule(updateTask, 0, updateTime);
+                bindTask = TopicaScheduler.scheduleWithFixedDelay(this, () -> {
+                    update(supplier.getAsDouble());
+                }, 0, updateTime, TimeUnit.MILLISECONDS);
             }
 
             /**
@@ -756,15 +1005,9 @@ public class Topica extends NanoWSD.WebSocket {
             public void bind(StringSupplier supplier) {
                 cancelPreviousBindingIfExists();
 
-                updateTask = new TimerTask() {
-                    @Override
-                    public void run() {
-                        update(supplier.get());
-                    }
-                };
-
-                updateTimer = new Timer();
-                updateTimer.schedule(updateTask, 0, updateTime);
+                bindTask = TopicaScheduler.scheduleWithFixedDelay(this, () -> {
+                    update(supplier.get());
+                }, 0, updateTime, TimeUnit.MILLISECONDS);
             }
 
             /**
@@ -774,15 +1017,9 @@ public class Topica extends NanoWSD.WebSocket {
             public void bind(BooleanSupplier supplier) {
                 cancelPreviousBindingIfExists();
 
-                updateTask = new TimerTask() {
-                    @Override
-                    public void run() {
-                        update(supplier.getAsBoolean());
-                    }
-                };
-
-                updateTimer = new Timer();
-                updateTimer.schedule(updateTask, 0, updateTime);
+                bindTask = TopicaScheduler.scheduleWithFixedDelay(this, () -> {
+                    update(supplier.getAsBoolean());
+                }, 0, updateTime, TimeUnit.MILLISECONDS);
             }
 
             /**
@@ -843,13 +1080,41 @@ public class Topica extends NanoWSD.WebSocket {
             }
         }
 
-        private ArrayList<Topic> topics;
+        /**
+         * Callback class for when a new topic is added to the database.
+         * */
+        public static interface CreationCallback {
+            /**
+             * Called when a topic is added to the database.
+             * @param topic The topic that was added.
+             * */
+            public void onCreate(Topic topic);
+        }
+
+        // indexed by path, so lookups don't have to scan every topic (and can be safely hit from the websocket threads)
+        private final ConcurrentHashMap<String, Topic> topics;
+
+        // the same topics, indexed by path segment for wildcard lookups
+        private final TopicTrie trie = new TopicTrie();
+
+        // indexed by topic ID, only ever grows. IDs are never reused, so a removed topic leaves a null slot.
+        private volatile Topic[] topicsById;
+        private int nextId = 0;
+
+        private final CopyOnWriteArrayList<CreationCallback> creationCallbacks = new CopyOnWriteArrayList<>();
+
+        // held while a batch of topics is written or read, so a batch get never sees half of a batch set
+        private final Object batchLock = new Object();
+
+        // bumped by every change of every topic
+        private final AtomicLong version = new AtomicLong(0);
 
         /**
          * Creates a new topic database.
          * */
         public Database() {
-            topics = new ArrayList<>();
+            topics = new ConcurrentHashMap<>();
+            topicsById = new Topic[64];
         }
 
         /**
@@ -857,13 +1122,7 @@ public class Topica extends NanoWSD.WebSocket {
          * @return All real topics, that is, excluding any client-specific topics.
          * */
         public String[] getRealTopics() {
-            String[] topicNames = new String[topics.size()];
-
-            for (int i = 0; i < topics.size(); i++) {
-                topicNames[i] = topics.get(i).path;
-            }
-
-            return topicNames;
+            return topics.keySet().toArray(new String[0]);
         }
 
 
@@ -882,6 +1141,7 @@ public class Topica extends NanoWSD.WebSocket {
 
         /**
          * Adds a topic to the database.
+         * If a topic with the same path already exists, the existing topic is kept.
          * @param topic The topic to add.
          * */
         protected void addTopic(Topic topic) {
@@ -889,11 +1149,63 @@ public class Topica extends NanoWSD.WebSocket {
                 return;
             }
 
-            topics.add(topic);
+            if (topics.putIfAbsent(topic.path, topic) != null) {
+                return;
+            }
+
+            trie.put(topic);
+            assignId(topic);
+
+            FlightRecorder.define(topic);
+
+            synchronized (topic) {
+                topic.touch();
+            }
+
+            Topic verbose = getTopic("/topica/verbose");
 
-            if (hasTopic("/topica/verbose") && getTopic("/topica/verbose").getAsBoolean()) {
+            if (verbose != null && verbose.getAsBoolean()) {
                 System.out.println("[TOPICA] Added new topic: " + topic.getPath());
             }
+
+            for (CreationCallback callback : creationCallbacks) {
+                callback.onCreate(topic);
+            }
+        }
+
+        /**
+         * Adds a callback for whenever a new topic is added to the database.
+         * @param callback The callback to add.
+         * */
+        public void addCreationCallback(CreationCallback callback) {
+            creationCallbacks.add(callback);
+        }
+
+        /**
+         * Removes a creation callback from the database.
+         * @param callback The callback to remove.
+         * */
+        public void removeCreationCallback(CreationCallback callback) {
+            creationCallbacks.remove(callback);
+        }
+
+        /**
+         * Assigns the next free ID to a topic.
+         * @param topic The topic to assign an ID to.
+         * */
+        private synchronized void assignId(Topic topic) {
+            Topic[] byId = topicsById;
+
+            if (nextId == byId.length) {
+                byId = Arrays.copyOf(byId, byId.length * 2);
+            }
+
+            byId[nextId] = topic;
+            topic.id = nextId;
+
+            nextId++;
+
+            topicsById = byId;
         }
 
         /**
@@ -901,22 +1213,133 @@ public class Topica extends NanoWSD.WebSocket {
          * @param topic The topic to remove.
          * */
         public void removeTopic(Topic topic) {
-            topics.remove(topic);
+            if (!topics.remove(topic.path, topic)) {
+                return;
+            }
+
+            trie.remove(topic);
+
+            synchronized (this) {
+                if (topic.id >= 0 && topicsById[topic.id] == topic) {
+                    topicsById[topic.id] = null;
+                }
+            }
         }
 
         /**
          * Gets a topic from the database by the path.
          * @param path The path of the topic.
-         * @return The topic with the given path.
+         * @return The topic with the given path, or null if it does not exist.
          * */
         public Topic getTopic(String path) {
-            for (Topic topic : topics) {
-                if (topic.getPath().equals(path)) {
-                    return topic;
+            return topics.get(path);
+        }
+
+        /**
+         * Gets a topic from the database by its ID.
+         * @param id The ID of the topic.
+         * @return The topic with the given ID, or null if it does not exist.
+         * @see Topic#getId()
+         * */
+        public Topic getTopic(int id) {
+            Topic[] byId = topicsById;
+
+            if (id < 0 || id >= byId.length) {
+                return null;
+            }
+
+            return byId[id];
+        }
+
+        /**
+         * Gets the current version of the database.
+         * The version goes up by one for every change (or creation) of a topic, and never goes down.
+         * @return The current version of the database.
+         * */
+        public long getVersion() {
+            return version.get();
+        }
+
+        /**
+         * Gets the next version of the database, for a topic that has changed.
+         * @return The next version.
+         * */
+        private long nextVersion() {
+            return version.incrementAndGet();
+        }
+
+        /**
+         * Gets all of the topics that have changed (or were created) after a version.
+         * @param since The version to get the changes after, 0 for every topic.
+         * @return The topics that changed after the version, in order of ID.
+         * */
+        public List<Topic> getTopicsChangedSince(long since) {
+            Topic[] byId = topicsById;
+            List<Topic> changed = new ArrayList<>();
+
+            for (Topic topic : byId) {
+                if (topic == null) {
+                    continue;
+                }
+
+                // a change takes its version and sets it on the topic under the topic's lock,
+                // so every version up to the current one is visible here once we hold it
+                synchronized (topic) {
+                    if (topic.version > since) {
+                        changed.add(topic);
+                    }
+                }
+            }
+
+            return changed;
+        }
+
+        /**
+         * Enables or disables the history of every topic according to /topica/history/topics.
+         * */
+        private void applyHistoryConfig() {
+            for (Topic topic : topics.values()) {
+                applyHistoryConfig(topic);
+            }
+        }
+
+        /**
+         * Enables or disables the history of a topic according to /topica/history/topics.
+         * Histories enabled from the code are left alone.
+         * @param topic The topic to apply the configuration to.
+         * */
+        private void applyHistoryConfig(Topic topic) {
+            Topic config = getTopic(HISTORY_TOPICS_TOPIC);
+
+            if (config == null) {
+                return;
+            }
+
+            boolean matches = false;
+
+            for (String pattern : config.getAsString().split(",")) {
+                pattern = pattern.trim();
+
+                if (!pattern.isEmpty() && TopicTrie.matches(pattern, topic.getPath())) {
+                    matches = true;
+                    break;
                 }
             }
 
-            return null;
+            if (matches) {
+                topic.enableHistoryFromConfig();
+            } else if (topic.historyFromConfig) {
+                topic.disableHistory();
+            }
+        }
+
+        /**
+         * Gets all of the topics that match a pattern, such as /gamepad1/* or /robot/**.
+         * @param pattern The pattern to match, see {@link TopicTrie} for the syntax.
+         * @return The topics that match the pattern.
+         * */
+        public List<Topic> getTopics(String pattern) {
+            return trie.getMatches(pattern);
         }
 
         /**
@@ -925,9 +1348,25 @@ public class Topica extends NanoWSD.WebSocket {
          * @return True if the topic exists, false otherwise.
          * */
         public boolean hasTopic(String path) {
-            return getTopic(path) != null;
+            return topics.containsKey(path);
         }
-    }
+
+        /**
+         * Gets the number of IDs that have been assigned, which is one more than the highest ID.
+         * @return The number of IDs that have been assigned.
+         * */
+        public synchronized int getIdCount() {
+            return nextId;
+        }
+
+        /**
+         * Gets the number of topics in the database.
+         * @return The number of topics in the database.
+         * */
+        public int size() {
+            return topics.size();
+        }
+    }
 
     private static ArrayList<String> usedNicknames = new ArrayList<>();
 
@@ -1056,15 +1495,23 @@ public class Topica extends NanoWSD.WebSocket {
 
 
     // variables for the Topica class
-    private ArrayList<Pair<Timer, TimerTask>> subscriptions;
+    // cancels each of the subscriptions of this connection
+    private CopyOnWriteArrayList<Runnable> subscriptions;
 
     // code name to make it easier to understand which is what.
     private String nickname;
 
     private final UUID connectionID;
 
-    private TimerTask pingTask;
-    private Timer pingTimer;
+    // everything sent to the client goes through here, so a slow client never blocks the thread producing the data
+    private final OutboundQueue<NanoWSD.WebSocketFrame> outbound = new OutboundQueue<>(this::sendFrame);
+
+    // the key of pings in the outbound queue, so a client that's behind only ever has one waiting
+    private static final Object PING_KEY = new Object();
+
+    // all of the open connections
+    private static final CopyOnWriteArrayList<Topica> connections = new CopyOnWriteArrayList<>();
+
 
     /**
      * Creates a new Topica WebSocket connection.
@@ -1073,17 +1520,74 @@ public class Topica extends NanoWSD.WebSocket {
     public Topica(NanoHTTPD.IHTTPSession handshakeRequest) {
         super(handshakeRequest);
 
-        subscriptions = new ArrayList<>();
+        subscriptions = new CopyOnWriteArrayList<>();
 
         connectionID = UUID.randomUUID();
         nickname = generateNickname();
     }
 
+    /**
+     * Gets all of the open Topica connections.
+     * @return The open connections.
+     * */
+    public static List<Topica> getConnections() {
+        return connections;
+    }
+
+    /**
+     * Gets the nickname of the connection.
+     * @return The nickname of the connection.
+     * */
+    public String getNickname() {
+        return nickname;
+    }
+
+    /**
+     * Gets the outbound queue of the connection, for its depth and drop counters.
+     * @return The outbound queue of the connection.
+     * */
+    public OutboundQueue<NanoWSD.WebSocketFrame> getOutbound() {
+        return outbound;
+    }
+
+    /**
+     * Queues data to be sent to the client.
+     * This never blocks, the data is sent by the writer of the connection.
+     * @param payload The data to send.
+     * @throws IOException Never, kept for compatibility with {@link NanoWSD.WebSocket#send(byte[])}.
+     * */
+    @Override
+    public void send(byte[] payload) throws IOException {
+        outbound.offer(new NanoWSD.WebSocketFrame(NanoWSD.WebSocketFrame.OpCode.Binary, true, payload));
+    }
+
+    /**
+     * Queues the value of a topic to be sent to the client.
+     * If a value with the same key is still waiting to be sent, it is replaced, so a slow client only gets the newest value.
+     * @param key The key of the value (e.g. the topic). Compared with equals().
+     * @param payload The data to send.
+     * */
+    protected void send(Object key, byte[] payload) {
+        outbound.offer(key, new NanoWSD.WebSocketFrame(NanoWSD.WebSocketFrame.OpCode.Binary, true, payload));
+    }
+
+    /**
+     * Queues a ping to the client. Only one ping is ever waiting to be sent.
+     * @param payload The payload of the ping.
+     * @throws IOException Never, kept for compatibility with {@link NanoWSD.WebSocket#ping(byte[])}.
+     * */
+    @Override
+    public void ping(byte[] payload) throws IOException {
+        outbound.offer(PING_KEY, new NanoWSD.WebSocketFrame(NanoWSD.WebSocketFrame.OpCode.Ping, true, payload));
+    }
+
     /**
      * Creates a new Topica WebSocket connection.
      * */
     @Override
     protected void onOpen() {
+        connections.add(this);
+
         String remoteHost = this.getHandshakeRequest().getRemoteHostName();
         String remotePort = this.getHandshakeRequest().getRemoteIpAddress();
 
@@ -1091,23 +1595,18 @@ public class Topica extends NanoWSD.WebSocket {
             System.out.println("[TOPICA] Opened new Topica connection @ " + remoteHost + ":" + remotePort + " with " + this.nickname + " (" + this.connectionID.toString() + ").");
         }
 
-        pingTask = new TimerTask() {
-            @Override
-            public void run() {
-                try {
-                    ping(new byte[] {
-                            0x00
-                    });
-                } catch (IOException e) {
-                    if (isVerbose()) {
-                        System.out.println("[TOPICA] Unable to ping!");
-                    }
+        //ping every 500ms.
+        TopicaScheduler.scheduleAtFixedRate(this, () -> {
+            try {
+                ping(new byte[] {
+                        0x00
+                });
+            } catch (IOException e) {
+                if (isVerbose()) {
+                    System.out.println("[TOPICA] Unable to ping!");
                 }
             }
-        };
-
-        pingTimer = new Timer();
-        pingTimer.schedule(pingTask, PING_TIME, PING_TIME); //ping every 500ms.
+        }, PING_TIME, PING_TIME, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -1118,14 +1617,16 @@ public class Topica extends NanoWSD.WebSocket {
      * */
     @Override
     protected void onClose(NanoWSD.WebSocketFrame.CloseCode code, String reason, boolean initiatedByRemote) {
-        //close all timers
-        for (Pair<Timer, TimerTask> pair : subscriptions) {
-            pair.component1().cancel();
-            pair.component2().cancel();
+        //cancel all subscriptions
+        for (Runnable cancel : subscriptions) {
+            cancel.run();
         }
 
-        pingTimer.cancel();
-        pingTask.cancel();
+        // the ping and any timed subscriptions
+        TopicaScheduler.cancelAll(this);
+
+        connections.remove(this);
+        outbound.close();
 
         if (isVerbose()) {
             System.out.println("[TOPICA] Closed Topica connection with " + this.nickname + " (" + this.connectionID.toString() + ").");
@@ -1140,210 +1641,618 @@ public class Topica extends NanoWSD.WebSocket {
     protected void onMessage(NanoWSD.WebSocketFrame message) {
         byte[] payload = message.getBinaryPayload();
 
-        int[] data = Mathf.allPos(payload);
-
-        //first, get the method using the first byte
-        int firstByte = data[0];
-        int secondByte = data[1];
+        if (payload.length < 2) {
+            return;
+        }
 
         // get the four msb of the first byte
-        int method = firstByte >> 4;
+        int method = (payload[0] & 0xFF) >> 4;
 
-        // combine the four lsb of the first byte and the second byte
-        int pathLength = (firstByte & 0b00001111) << 8 | secondByte;
+        // all of the parsing reads from a view over the payload, the only copies made are the path and the final value
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
 
-        // get the path
-        byte[] pathBytes = new byte[pathLength];
-        for (int i = 0; i < pathLength; i++) {
-            pathBytes[i] = (byte) data[i + 2];
-        }
+        try {
+            if (method == GET_ID_RESPONSE || method == SET_ID_RESPONSE || method == SUBSCRIBE_ID_RESPONSE) {
+                onIdMessage(method, buffer);
+                return;
+            }
+
+            if (method == BATCH_RESPONSE) {
+                onBatchMessage(buffer);
+                return;
+            }
 
-        // decode pathBytes to utf-8 string
-        String path = new String(pathBytes);
+            // combine the four lsb of the first byte and the second byte
+            int pathLength = (buffer.get() & 0b00001111) << 8 | (buffer.get() & 0xFF);
 
-        if (method == GET_RESPONSE) {
-            sendTopicData(path);
-        } else if (method == SET_RESPONSE) {
-            int[] restOfPayload = new int[data.length - pathLength - 2];
-            for (int i = 0; i < restOfPayload.length; i++) {
-                restOfPayload[i] = data[i + pathLength + 2];
+            if (pathLength > buffer.remaining()) {
+                throw new BufferUnderflowException();
             }
 
-            setTopicData(path, restOfPayload);
-        } else if (method == SUBSCRIBE_RESPONSE) {
-            int[] restOfPayload = new int[data.length - pathLength - 2];
-            for (int i = 0; i < restOfPayload.length; i++) {
-                restOfPayload[i] = data[i + pathLength + 2];
+            // decode the path as utf-8, straight from the payload
+            String path = new String(payload, buffer.position(), pathLength, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + pathLength);
+
+            if (method == GET_RESPONSE) {
+                sendTopicData(path);
+            } else if (method == SET_RESPONSE) {
+                setTopicData(path, buffer);
+            } else if (method == SUBSCRIBE_RESPONSE) {
+                subscribeToTopic(path, buffer);
+            } else if (method == RESOLVE_RESPONSE) {
+                sendTopicId(path);
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            // a truncated (or malformed) frame, nothing of it is applied
+            if (isVerbose()) {
+                System.out.println("[TOPICA] Dropped a malformed frame from " + this.nickname + ".");
             }
+        }
+    }
 
-            subscribeToTopic(path, restOfPayload);
+    /**
+     * Handles a message that addresses a topic by ID rather than by path.
+     * These frames go: [method (4 msb), 4 lsb unused] [topic id (4 bytes)] [rest of the request].
+     * @param method The method of the message.
+     * @param request The message, positioned at the start.
+     * */
+    private void onIdMessage(int method, ByteBuffer request) {
+        request.get();
+        int id = request.getInt();
+
+        if (method == GET_ID_RESPONSE) {
+            sendTopicData(id);
+        } else if (method == SET_ID_RESPONSE) {
+            setTopicData(id, request);
+        } else if (method == SUBSCRIBE_ID_RESPONSE) {
+            subscribeToTopic(id, request);
         }
     }
 
     /**
-     * Sends the data of a topic to the client.
-     * @param topic The topic to send the data of.
+     * Handles a message that gets or sets several topics at once.
+     * These frames go: [0b0000 (4 msb), batch operation (4 lsb)] [count (2 bytes)] [count entries].
+     * Each entry starts with the topic, as [path length (2 bytes)] [path] or as [topic id (4 bytes)].
+     * For sets, the topic is followed by the same fields as a single set (type, data length, data).
+     * @param buffer The message, positioned at the start.
      * */
-    protected void sendTopicData(String topic) {
-        byte[] pathLength = new byte[2];
+    private void onBatchMessage(ByteBuffer buffer) {
+        int operation = buffer.get() & 0b00001111;
+        boolean byId = operation == BATCH_GET_ID || operation == BATCH_SET_ID;
 
-        // 4 msb to signify the method
-        pathLength[0] = (byte) (RESPONSE_FLAG << 4);
+        if (operation == BATCH_CHANGES) {
+            // no count, just the version to get the changes since
+            sendChangesSince(buffer.getLong());
+            return;
+        }
 
-        // 12 lsb to signify the length of the path
-        pathLength[0] |= (byte) ((topic.length() >> 8) & 0b00001111);
-        pathLength[1] = (byte) (topic.length() & 0xFF);
+        if (operation == BATCH_HISTORY) {
+            String path = readBatchPath(buffer);
+            byte query = buffer.get();
 
-        // encode the path
-        byte[] encodedPath = topic.getBytes();
+            if (query == HISTORY_RANGE) {
+                long from = buffer.getLong();
+                long to = buffer.getLong();
+
+                sendHistory(path, (history) -> history.getRange(from, to));
+            } else if (query == HISTORY_LAST) {
+                int count = buffer.getInt();
+
+                sendHistory(path, (history) -> history.getLast(count));
+            }
 
-        if (!database.hasTopic(topic) && !topic.startsWith("/me/")) {
-            // send an error message
             return;
         }
 
-        // get the topic data
-        Database.Topic dbTopic = null;
+        int count = buffer.getShort() & 0xFFFF;
 
-        if (topic.startsWith("/me/")) {
-            dbTopic = new Database.Topic(STRING_TYPE, new byte[0]);
-            if (topic.equalsIgnoreCase("/me/nickname")) {
-                dbTopic.update(this.nickname);
-            } else if (topic.equalsIgnoreCase("/me/id")) {
-                dbTopic.update(this.connectionID.toString());
+        if (operation == BATCH_GET || operation == BATCH_GET_ID) {
+            Object[] topics = new Object[count];
+
+            for (int i = 0; i < count; i++) {
+                topics[i] = byId ? (Object) buffer.getInt() : readBatchPath(buffer);
             }
-        } else {
-            dbTopic = database.getTopic(topic);
+
+            sendBatchData(operation, topics);
+        } else if (operation == BATCH_SET || operation == BATCH_SET_ID) {
+            Object[] topics = new Object[count];
+            byte[] types = new byte[count];
+            ByteBuffer[] values = new ByteBuffer[count];
+
+            for (int i = 0; i < count; i++) {
+                topics[i] = byId ? (Object) buffer.getInt() : readBatchPath(buffer);
+                types[i] = buffer.get(buffer.position());
+                values[i] = readSetData(buffer);
+            }
+
+            setBatchData(topics, types, values);
         }
+    }
 
-        if (dbTopic == null) {
-            return;
+    /**
+     * Reads a path of a batch entry.
+     * @param buffer The buffer to read from, positioned at the path length.
+     * @return The path.
+     * */
+    private static String readBatchPath(ByteBuffer buffer) {
+        int pathLength = buffer.getShort() & 0xFFFF;
+
+        if (pathLength > buffer.remaining()) {
+            throw new BufferUnderflowException();
         }
 
-        // get the data
-        byte[] data = dbTopic.getData();
+        String path = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), pathLength, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + pathLength);
 
-        byte type = dbTopic.getType();
+        return path;
+    }
 
-        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES);
-        buffer.putInt(data.length);
+    /**
+     * Sends the data of several topics to the client in one frame.
+     * The response goes: [0b1010 (4 msb), batch operation (4 lsb)] [count (2 bytes)] [count entries],
+     * with each entry being the topic (as it was requested) followed by the type, data length (4 bytes) and data.
+     * Entries are in the order they were requested, and a topic that does not exist has type 0 and no data.
+     * @param operation The batch operation of the request.
+     * @param topics The requested topics, as paths or IDs.
+     * */
+    protected void sendBatchData(int operation, Object[] topics) {
+        sendBatchData(operation, new byte[0], topics);
+    }
 
-        byte[] payloadLength = buffer.array();
+    /**
+     * Sends the data of several topics to the client in one frame, with extra fields between the first byte and the count.
+     * @param operation The batch operation of the request.
+     * @param fields The extra fields of the reply.
+     * @param topics The requested topics, as paths or IDs.
+     * */
+    private void sendBatchData(int operation, byte[] fields, Object[] topics) {
+        byte[][] entries = new byte[topics.length][];
+        int length = 1 + fields.length + Short.BYTES;
+
+        synchronized (database.batchLock) {
+            for (int i = 0; i < topics.length; i++) {
+                byte[] header;
+                Database.Topic dbTopic;
+
+                if (topics[i] instanceof Integer) {
+                    int id = (Integer) topics[i];
+
+                    header = ByteBuffer.allocate(Integer.BYTES).putInt(id).array();
+                    dbTopic = database.getTopic(id);
+                } else {
+                    String path = (String) topics[i];
+                    byte[] encodedPath = path.getBytes(StandardCharsets.UTF_8);
+
+                    header = ByteBuffer.allocate(Short.BYTES + encodedPath.length).putShort((short) encodedPath.length).put(encodedPath).array();
+                    dbTopic = resolveTopic(path);
+                }
+
+                entries[i] = dbTopic == null ? encodeTopicValue(header, (byte) 0, new byte[0]) : encodeTopicValue(header, dbTopic);
+                length += entries[i].length;
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.put((byte) (BATCH_RESPONSE_FLAG << 4 | operation));
+        buffer.put(fields);
+        buffer.putShort((short) topics.length);
+
+        for (byte[] entry : entries) {
+            buffer.put(entry);
+        }
+
+        try {
+            send(buffer.array());
+        } catch (IOException ignored) {}
+    }
+
+    /**
+     * Sends every topic that has changed (or was created) since a version of the database, by path.
+     * The response goes: [0b1010 (4 msb), 0b0100 (4 lsb)] [version (8 bytes)] [count (2 bytes)] [count entries], like a batch get by path.
+     * The version is the version of the database the changes are up to, to ask for the changes since next time.
+     * If there are more changes than fit in one frame, they are split over several frames with the same version.
+     * @param since The version to send the changes since, 0 for every topic.
+     * */
+    protected void sendChangesSince(long since) {
+        long version;
+        List<Database.Topic> changed;
+
+        // capture the version first, anything that changes after it is either in this reply or the next one
+        synchronized (database.batchLock) {
+            version = database.getVersion();
+            changed = database.getTopicsChangedSince(since);
+        }
+
+        byte[] fields = ByteBuffer.allocate(Long.BYTES).putLong(version).array();
+
+        int offset = 0;
+
+        do {
+            int count = Math.min(changed.size() - offset, MAX_BATCH_SIZE);
+
+            Object[] paths = new Object[count];
+            for (int i = 0; i < count; i++) {
+                paths[i] = changed.get(offset + i).getPath();
+            }
+
+            sendBatchData(BATCH_CHANGES, fields, paths);
+
+            offset += count;
+        } while (offset < changed.size());
+    }
+
+    /**
+     * Sends samples from the history of a topic.
+     * The response goes: [0b1010 (4 msb), 0b0101 (4 lsb)] [path length (2 bytes)] [path] [type] [count (4 bytes)] [count samples],
+     * with each sample being [timestamp in ms (8 bytes)] [data length (4 bytes)] [data], oldest first.
+     * A topic that does not exist or has no history has type 0 and no samples.
+     * @param topic The path of the topic.
+     * @param query Gets the samples to send from the history.
+     * */
+    protected void sendHistory(String topic, Function<TopicHistory, List<TopicHistory.Sample>> query) {
+        Database.Topic dbTopic = database.getTopic(topic);
+        TopicHistory history = dbTopic == null ? null : dbTopic.getHistory();
+
+        List<TopicHistory.Sample> samples = history == null ? Collections.emptyList() : query.apply(history);
+
+        byte[] encodedPath = topic.getBytes(StandardCharsets.UTF_8);
+
+        int length = 1 + Short.BYTES + encodedPath.length + 1 + Integer.BYTES;
+        for (TopicHistory.Sample sample : samples) {
+            length += Long.BYTES + Integer.BYTES + sample.getData().length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+
+        buffer.put((byte) (BATCH_RESPONSE_FLAG << 4 | BATCH_HISTORY));
+        buffer.putShort((short) encodedPath.length);
+        buffer.put(encodedPath);
+        buffer.put(history == null ? 0 : dbTopic.getType());
+        buffer.putInt(samples.size());
+
+        for (TopicHistory.Sample sample : samples) {
+            buffer.putLong(sample.getTimestamp());
+            buffer.putInt(sample.getData().length);
+            buffer.put(sample.getData());
+        }
+
+        try {
+            send(buffer.array());
+        } catch (IOException ignored) {}
+    }
+
+    /**
+     * Sets the data of several topics at once.
+     * Every topic is written before any callbacks or subscriptions are notified, so listeners (and batch gets) see the whole batch.
+     * Topics addressed by path are created if they don't exist (unless Topica is strict), topics addressed by ID are not.
+     * @param topics The topics to set, as paths or IDs.
+     * @param types The types of the values.
+     * @param values The values to set the topics to.
+     * */
+    protected void setBatchData(Object[] topics, byte[] types, ByteBuffer[] values) {
+        Database.Topic[] updated = new Database.Topic[topics.length];
+
+        synchronized (database.batchLock) {
+            for (int i = 0; i < topics.length; i++) {
+                Database.Topic dbTopic = topics[i] instanceof Integer ? database.getTopic((Integer) topics[i]) : database.getTopic((String) topics[i]);
+
+                if (dbTopic != null) {
+                    dbTopic.write(values[i]);
+                    updated[i] = dbTopic;
+                } else if (topics[i] instanceof String) {
+                    Database.Topic strict = database.getTopic("/topica/strict");
+
+                    if (strict == null || !strict.getAsBoolean()) {
+                        new Database.Topic((String) topics[i], types[i], toArray(values[i]));
+                    }
+                }
+            }
+        }
+
+        for (Database.Topic dbTopic : updated) {
+            if (dbTopic != null) {
+                dbTopic.runCallbacks();
+                dbTopic.runInternalSubscriptions();
+            }
+        }
+    }
+
+    /**
+     * Encodes the method and path header of a path based frame.
+     * @param method The method (4 msb of the first byte).
+     * @param encodedPath The utf-8 encoded path.
+     * @return The header, containing the method, path length and path.
+     * */
+    private static byte[] encodePathHeader(byte method, byte[] encodedPath) {
+        byte[] header = new byte[2 + encodedPath.length];
+
+        // 4 msb to signify the method
+        header[0] = (byte) (method << 4);
+
+        // 12 lsb to signify the length of the path
+        header[0] |= (byte) ((encodedPath.length >> 8) & 0b00001111);
+        header[1] = (byte) (encodedPath.length & 0xFF);
+
+        System.arraycopy(encodedPath, 0, header, 2, encodedPath.length);
+
+        return header;
+    }
+
+    /**
+     * Encodes the value of a topic behind the given header.
+     * @param header The header of the frame (method and path or ID).
+     * @param dbTopic The topic to encode the value of.
+     * @return The full frame.
+     * */
+    private static byte[] encodeTopicValue(byte[] header, Database.Topic dbTopic) {
+        // the topic overwrites its buffer in place, so hold its lock while copying the data out
+        synchronized (dbTopic) {
+            return encodeTopicValue(header, dbTopic.getType(), dbTopic.getData());
+        }
+    }
+
+    /**
+     * Encodes a value behind a header.
+     * @param header The header to put in front of the value.
+     * @param type The type of the value.
+     * @param data The data of the value.
+     * @return The encoded value.
+     * */
+    private static byte[] encodeTopicValue(byte[] header, byte type, byte[] data) {
 
         // payload goes:
         /*
-        * Path Length
-        * Path
+        * Header (Path Length + Path, or Topic ID)
         * Data Type
         * Data Length
         * Data
         * */
 
-        byte[] payload = new byte[2 + encodedPath.length + 1 + Integer.BYTES + data.length];
+        ByteBuffer buffer = ByteBuffer.allocate(header.length + 1 + Integer.BYTES + data.length);
+
+        buffer.put(header);
+        buffer.put(type);
+        buffer.putInt(data.length);
+        buffer.put(data);
+
+        return buffer.array();
+    }
+
+    /**
+     * Sends the data of a topic to the client.
+     * @param topic The topic to send the data of.
+     * */
+    protected void sendTopicData(String topic) {
+        // get the topic data
+        Database.Topic dbTopic = resolveTopic(topic);
+
+        if (dbTopic == null) {
+            return;
+        }
+
+        // topic values are state, so only the newest unsent value of each topic is kept
+        send(topic, encodeTopicValue(encodePathHeader(RESPONSE_FLAG, topic.getBytes(StandardCharsets.UTF_8)), dbTopic));
+    }
+
+    /**
+     * Gets the topic to read for a path, including the connection specific /me/ topics.
+     * @param topic The path of the topic.
+     * @return The topic, or null if it does not exist.
+     * */
+    private Database.Topic resolveTopic(String topic) {
+        if (topic.startsWith("/me/")) {
+            Database.Topic dbTopic = new Database.Topic(STRING_TYPE, new byte[0]);
+            if (topic.equalsIgnoreCase("/me/nickname")) {
+                dbTopic.update(this.nickname);
+            } else if (topic.equalsIgnoreCase("/me/id")) {
+                dbTopic.update(this.connectionID.toString());
+            }
+
+            return dbTopic;
+        }
+
+        return database.getTopic(topic);
+    }
+
+    /**
+     * Sends the data of a topic to the client, addressed by the topic ID.
+     * The response goes: [0b1001 (4 msb)] [topic id (4 bytes)] [type] [data length (4 bytes)] [data].
+     * @param id The ID of the topic to send the data of.
+     * */
+    protected void sendTopicData(int id) {
+        Database.Topic dbTopic = database.getTopic(id);
+
+        if (dbTopic == null) {
+            return;
+        }
 
-        // copy the path length
-        System.arraycopy(pathLength, 0, payload, 0, 2);
+        byte[] header = new byte[1 + Integer.BYTES];
+        header[0] = (byte) (ID_RESPONSE_FLAG << 4);
+        ByteBuffer.wrap(header, 1, Integer.BYTES).putInt(id);
 
-        // copy the path
-        System.arraycopy(encodedPath, 0, payload, 2, encodedPath.length);
+        send(dbTopic, encodeTopicValue(header, dbTopic));
+    }
 
-        // copy the data type
-        payload[2 + encodedPath.length] = type;
+    /**
+     * Sends the ID of a topic to the client.
+     * The response goes: [0b1100 (4 msb) + path length (12 lsb)] [path] [topic id (4 bytes), -1 if the topic does not exist].
+     * @param topic The path of the topic to resolve.
+     * */
+    protected void sendTopicId(String topic) {
+        Database.Topic dbTopic = database.getTopic(topic);
 
-        // copy the data length
-        System.arraycopy(payloadLength, 0, payload, 2 + encodedPath.length + 1, Integer.BYTES);
+        byte[] header = encodePathHeader(RESOLVE_RESPONSE_FLAG, topic.getBytes(StandardCharsets.UTF_8));
 
-        // copy the data
-        System.arraycopy(data, 0, payload, 2 + encodedPath.length + 1 + Integer.BYTES, data.length);
+        ByteBuffer buffer = ByteBuffer.allocate(header.length + Integer.BYTES);
+        buffer.put(header);
+        buffer.putInt(dbTopic == null ? -1 : dbTopic.getId());
 
         try {
-            send(payload);
+            send(buffer.array());
         } catch (IOException ignored) {}
     }
 
     /**
-     * Sets the data of a topic.
-     * @param topic The topic to set the data of.
-     * @param unusedPayload The payload containing the rest of the data request.s
+     * Reads the data of a set request, and moves the request past it.
+     * @param request The rest of the set request, positioned at the data type.
+     * @return A view of the data to set the topic to, without copying it.
      * */
-    protected void setTopicData(String topic, int[] unusedPayload) {
-        /**
-         * In the unused payload:
+    private static ByteBuffer readSetData(ByteBuffer request) {
+        /*
+         * In the rest of the request:
          * Data Type: 1 byte
          * Data Length: 4 bytes
          * Data: n bytes
          * */
 
-        byte type = (byte) unusedPayload[0];
+        request.get();
+        int dataLength = request.getInt();
 
-        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES);
-        for (int i = 0; i < Integer.BYTES; i++) {
-            buffer.put(i, (byte) unusedPayload[i + 1]);
+        if (dataLength < 0 || dataLength > request.remaining()) {
+            throw new BufferUnderflowException();
         }
 
-        int dataLength = buffer.getInt();
+        ByteBuffer data = request.slice();
+        data.limit(dataLength);
 
-        byte[] data = new byte[dataLength];
-        for (int i = 0; i < dataLength; i++) {
-            data[i] = (byte) unusedPayload[i + Integer.BYTES + 1];
-        }
+        request.position(request.position() + dataLength);
+
+        return data;
+    }
+
+    /**
+     * Copies the remaining bytes of a buffer into a new array.
+     * @param buffer The buffer to copy.
+     * @return The copied bytes.
+     * */
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+
+        return bytes;
+    }
+
+    /**
+     * Sets the data of a topic.
+     * @param topic The topic to set the data of.
+     * @param request The rest of the set request, positioned at the data type.
+     * */
+    protected void setTopicData(String topic, ByteBuffer request) {
+        byte type = request.get(request.position());
+
+        ByteBuffer data = readSetData(request);
+
+        Database.Topic dbTopic = database.getTopic(topic);
+
+        if (dbTopic == null) {
+            Database.Topic strict = database.getTopic("/topica/strict");
 
-        if (!database.hasTopic(topic)) {
-            if (database.hasTopic("/topica/strict") && database.getTopic("/topica/strict").getAsBoolean()) {
+            if (strict != null && strict.getAsBoolean()) {
                 // send an error message
                 return;
             }
 
-            new Database.Topic(topic, type, data);
+            new Database.Topic(topic, type, toArray(data));
         } else {
-            Database.Topic dbTopic = database.getTopic(topic);
             dbTopic.update(data);
         }
 
     }
 
+    /**
+     * Sets the data of a topic, addressed by the topic ID.
+     * Unlike setting by path, this cannot create a new topic.
+     * @param id The ID of the topic to set the data of.
+     * @param request The rest of the set request, positioned at the data type.
+     * */
+    protected void setTopicData(int id, ByteBuffer request) {
+        Database.Topic dbTopic = database.getTopic(id);
+
+        if (dbTopic == null) {
+            return;
+        }
+
+        dbTopic.update(readSetData(request));
+    }
+
+    /**
+     * Reads the interval of a subscribe request.
+     * @param request The rest of the subscribe request, positioned at the interval.
+     * @return The interval, in ms.
+     * */
+    private static int readInterval(ByteBuffer request) {
+        return request.getInt(request.position());
+    }
+
+    /**
+     * Reads the (optional) minimum interval of a subscribe request, which follows the interval.
+     * Only used when the interval is 0, to coalesce bursts of updates into the latest value.
+     * @param request The rest of the subscribe request, positioned at the interval.
+     * @return The minimum interval, in ms, or 0 if it was not given.
+     * */
+    private static int readMinInterval(ByteBuffer request) {
+        if (request.remaining() < Integer.BYTES * 2) {
+            return 0;
+        }
+
+        return request.getInt(request.position() + Integer.BYTES);
+    }
+
     /**
      * Subscribes the websocket to a topic.
      * @param topic The topic to subscribe to.
-     * @param unusedPayload The payload containing the rest of the data request.
+     * @param request The rest of the subscribe request, positioned at the interval.
      * */
-    protected void subscribeToTopic(String topic, int[] unusedPayload) {
-        // the 4 bytes are the interval, in ms
-        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES);
-        for (int i = 0; i < 4; i++) {
-            buffer.put(i, (byte) unusedPayload[i]);
+    protected void subscribeToTopic(String topic, ByteBuffer request) {
+        if (TopicTrie.isPattern(topic)) {
+            subscribeToPattern(topic, readInterval(request), readMinInterval(request));
+            return;
         }
 
-        int interval = buffer.getInt();
-
-        if (interval == 0) { // this means just whenever there's a new value
-            Timer timer = new Timer();
+        subscribe(topic, readInterval(request), readMinInterval(request), () -> database.getTopic(topic), () -> sendTopicData(topic));
+    }
 
-            TimerTask task = new TimerTask() {
-                byte[] lastRawValue = new byte[0];
+    /**
+     * Subscribes the websocket to a topic, addressed by the topic ID.
+     * Updates are sent back addressed by the ID as well.
+     * @param id The ID of the topic to subscribe to.
+     * @param request The rest of the subscribe request, positioned at the interval.
+     * */
+    protected void subscribeToTopic(int id, ByteBuffer request) {
+        Database.Topic dbTopic = database.getTopic(id);
 
-                @Override
-                public void run() {
-                    if (!database.hasTopic(topic)) {
-                        return;
-                    }
+        if (dbTopic == null) {
+            return;
+        }
 
-                    if (lastRawValue == database.getTopic(topic).getData()) {
-                        return;
-                    }
+        subscribe(dbTopic.getPath(), readInterval(request), readMinInterval(request), () -> dbTopic, () -> sendTopicData(id));
+    }
 
-                    sendTopicData(topic);
+    /**
+     * Subscribes the websocket to a topic.
+     * @param topic The path of the topic.
+     * @param interval The interval of the subscription in ms, 0 to send whenever there's a new value.
+     * @param minInterval When the interval is 0, the minimum time between two sends in ms. Updates in between are coalesced into the latest value.
+     * @param lookup Gets the topic that is subscribed to.
+     * @param send Sends the topic data to the client.
+     * */
+    private void subscribe(String topic, int interval, int minInterval, Supplier<Database.Topic> lookup, Runnable send) {
+        if (interval == 0) { // this means just whenever there's a new value
+            PushSubscription subscription = new PushSubscription(topic, minInterval, send);
 
-                    lastRawValue = database.getTopic(topic).getData();
-                }
-            };
+            subscriptions.add(subscription::cancel);
 
-            timer.scheduleAtFixedRate(task, 0, 10);
+            Database.Topic dbTopic = lookup.get();
 
-            subscriptions.add(new Pair<>(timer, task));
+            if (dbTopic != null) {
+                subscription.attach(dbTopic);
+            } else {
+                // wait for the topic to be created
+                subscription.attachOnCreation();
+            }
 
             if (isVerbose()) {
-                System.out.println("[TOPICA] Client subscribed to topic " + topic + " with no interval (just whenever there's a new value).");
+                System.out.println("[TOPICA] Client subscribed to topic " + topic + " with no interval (just whenever there's a new value" + (minInterval > 0 ? ", at most every " + minInterval + "ms" : "") + ").");
             }
 
             return;
@@ -1360,7 +2269,7 @@ public class Topica extends NanoWSD.WebSocket {
             return;
         }
 
-        if (!database.hasTopic(topic)) {
+        if (lookup.get() == null) {
             return;
         }
 
@@ -1368,18 +2277,247 @@ public class Topica extends NanoWSD.WebSocket {
             System.out.println("[TOPICA] Client subscribed to topic " + topic + " (interval=" + interval + "ms).");
         }
 
-        Timer timer = new Timer();
+        ScheduledFuture<?> task = TopicaScheduler.scheduleAtFixedRate(this, send, interval, interval, TimeUnit.MILLISECONDS);
+
+        subscriptions.add(() -> TopicaScheduler.cancel(this, task));
+    }
 
-        TimerTask task = new TimerTask() {
-            @Override
-            public void run() {
-                sendTopicData(topic);
+    /**
+     * Subscribes the websocket to every topic matching a pattern, including topics that are created later.
+     * With no interval, every matching topic is pushed (by its own path) whenever it updates.
+     * With an interval, all of the matching topics are sent as one batch frame every interval.
+     * @param pattern The pattern to subscribe to, such as /gamepad1/* or /robot/**.
+     * @param interval The interval of the subscription in ms, 0 to send whenever there's a new value.
+     * @param minInterval When the interval is 0, the minimum time between two sends of a topic in ms.
+     * */
+    private void subscribeToPattern(String pattern, int interval, int minInterval) {
+        if (!TopicTrie.isValidPattern(pattern)) {
+            if (isVerbose()) {
+                System.out.println("[TOPICA] Cannot subscribe to pattern " + pattern + ", ** can only be the last segment.");
+            }
+            return;
+        }
+
+        if (interval == 0) {
+            // the creation callback and the initial matches can both see a topic created in between, so only attach once per path
+            Set<String> attached = ConcurrentHashMap.newKeySet();
+
+            Database.CreationCallback onCreate = (dbTopic) -> {
+                if (TopicTrie.matches(pattern, dbTopic.getPath()) && attached.add(dbTopic.getPath())) {
+                    attachToMatch(dbTopic, minInterval);
+                }
+            };
+
+            database.addCreationCallback(onCreate);
+            subscriptions.add(() -> database.removeCreationCallback(onCreate));
+
+            for (Database.Topic dbTopic : database.getTopics(pattern)) {
+                if (attached.add(dbTopic.getPath())) {
+                    attachToMatch(dbTopic, minInterval);
+                }
             }
-        };
 
-        timer.scheduleAtFixedRate(task, interval, interval);
+            if (isVerbose()) {
+                System.out.println("[TOPICA] Client subscribed to pattern " + pattern + " with no interval (" + attached.size() + " topics so far).");
+            }
+
+            return;
+        }
 
-        subscriptions.add(new Pair<>(timer, task));
+        if (interval < 10) {
+            if (isVerbose()) {
+                System.out.println("[TOPICA] Cannot subscribe pattern " + pattern + " with interval " + interval);
+            }
+            return;
+        }
+
+        if (isVerbose()) {
+            System.out.println("[TOPICA] Client subscribed to pattern " + pattern + " (interval=" + interval + "ms).");
+        }
+
+        // one task for the whole pattern, the matches are looked up every time so new topics are included
+        ScheduledFuture<?> task = TopicaScheduler.scheduleAtFixedRate(this, () -> {
+            List<Database.Topic> matches = database.getTopics(pattern);
+
+            if (matches.isEmpty()) {
+                return;
+            }
+
+            Object[] paths = new Object[matches.size()];
+            for (int i = 0; i < paths.length; i++) {
+                paths[i] = matches.get(i).getPath();
+            }
+
+            sendBatchData(BATCH_GET, paths);
+        }, interval, interval, TimeUnit.MILLISECONDS);
+
+        subscriptions.add(() -> TopicaScheduler.cancel(this, task));
+    }
+
+    /**
+     * Pushes a topic that matched a pattern subscription to the client whenever it updates.
+     * @param dbTopic The topic that matched.
+     * @param minInterval The minimum time between two sends in ms.
+     * */
+    private void attachToMatch(Database.Topic dbTopic, int minInterval) {
+        String path = dbTopic.getPath();
+
+        PushSubscription subscription = new PushSubscription(path, minInterval, () -> sendTopicData(path));
+        subscriptions.add(subscription::cancel);
+
+        subscription.attach(dbTopic);
+    }
+
+    /**
+     * A subscription that pushes the topic to the client from the topic's update callback, rather than polling it.
+     * With a minimum interval, bursts of updates are coalesced and only the latest value is sent.
+     * */
+    private static class PushSubscription implements Database.Topic.UpdateCallback, Database.CreationCallback {
+        private final String path;
+        private final long minInterval; // ns
+        private final Runnable send;
+
+        private final AtomicBoolean attached = new AtomicBoolean(false);
+        private volatile boolean cancelled = false;
+        private volatile Database.Topic topic;
+
+        // guarded by this
+        private long lastSent;
+        private boolean flushPending = false;
+
+        /**
+         * Creates a new push subscription.
+         * @param path The path of the topic.
+         * @param minInterval The minimum time between two sends in ms, 0 to send on every update.
+         * @param send Sends the topic data to the client.
+         * */
+        PushSubscription(String path, int minInterval, Runnable send) {
+            this.path = path;
+            this.minInterval = TimeUnit.MILLISECONDS.toNanos(Math.max(minInterval, 0));
+            this.send = send;
+
+            lastSent = System.nanoTime() - this.minInterval;
+        }
+
+        /**
+         * Attaches the subscription to the topic, and sends the current value.
+         * @param topic The topic to attach to.
+         * */
+        void attach(Database.Topic topic) {
+            if (!attached.compareAndSet(false, true)) {
+                return;
+            }
+
+            this.topic = topic;
+            topic.addCallback(this);
+
+            if (cancelled) {
+                topic.removeCallback(this);
+                return;
+            }
+
+            onUpdate(topic);
+        }
+
+        /**
+         * Attaches the subscription to the topic once it is added to the database.
+         * */
+        void attachOnCreation() {
+            Database database = Topica.getDatabase();
+            database.addCreationCallback(this);
+
+            // the topic might have been created before the callback was added
+            Database.Topic created = database.getTopic(path);
+
+            if (created != null) {
+                database.removeCreationCallback(this);
+                attach(created);
+            }
+        }
+
+        /**
+         * Called when a topic is added to the database.
+         * @param created The topic that was added.
+         * */
+        @Override
+        public void onCreate(Database.Topic created) {
+            if (!created.getPath().equals(path)) {
+                return;
+            }
+
+            Topica.getDatabase().removeCreationCallback(this);
+            attach(created);
+        }
+
+        /**
+         * Called when the topic is updated.
+         * @param updated The topic that was updated.
+         * */
+        @Override
+        public void onUpdate(Database.Topic updated) {
+            if (cancelled) {
+                return;
+            }
+
+            if (minInterval == 0) {
+                send.run();
+                return;
+            }
+
+            long delay;
+
+            synchronized (this) {
+                if (flushPending) {
+                    // the flush that's already scheduled will pick up the latest value
+                    return;
+                }
+
+                long now = System.nanoTime();
+                delay = lastSent + minInterval - now;
+
+                if (delay <= 0) {
+                    lastSent = now;
+                } else {
+                    flushPending = true;
+                }
+            }
+
+            if (delay <= 0) {
+                send.run();
+                return;
+            }
+
+            TopicaScheduler.schedule(this::flush, delay, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Sends the latest value after a coalesced burst.
+         * */
+        private void flush() {
+            synchronized (this) {
+                flushPending = false;
+                lastSent = System.nanoTime();
+            }
+
+            if (!cancelled) {
+                send.run();
+            }
+        }
+
+        /**
+         * Cancels the subscription.
+         * */
+        void cancel() {
+            cancelled = true;
+
+            Topica.getDatabase().removeCreationCallback(this);
+
+            Database.Topic topic = this.topic;
+
+            if (topic != null) {
+                topic.removeCallback(this);
+            }
+        }
     }
 
     /**
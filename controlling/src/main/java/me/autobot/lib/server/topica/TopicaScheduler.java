@@ -0,0 +1,189 @@
+package me.autobot.lib.server.topica;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A single, bounded scheduler for all of the periodic work in Topica (topic bindings, timed subscriptions, pings).
+ * Periodic tasks are tracked by an owner (a topic or a connection), so all of the tasks of an owner can be cancelled at once.
+ * The number of live periodic tasks is published to /topica/scheduled_tasks.
+ * */
+public class TopicaScheduler {
+    /**
+     * The number of threads the scheduler uses.
+     * */
+    public static final int THREADS = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+
+    /**
+     * The topic the number of live periodic tasks is published to.
+     * */
+    public static final String TASK_COUNT_TOPIC = "/topica/scheduled_tasks";
+
+    private static final ScheduledThreadPoolExecutor executor;
+
+    private static final ConcurrentHashMap<Object, Set<ScheduledFuture<?>>> tasks = new ConcurrentHashMap<>();
+    private static final AtomicInteger taskCount = new AtomicInteger(0);
+
+    static {
+        AtomicInteger threadNumber = new AtomicInteger(0);
+
+        executor = new ScheduledThreadPoolExecutor(THREADS, (runnable) -> {
+            Thread thread = new Thread(runnable, "topica-scheduler-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // don't keep cancelled tasks in the queue until they would've run
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Tries to instantiate a TopicaScheduler object, but throws an exception because it is a utility class.
+     * Please use the static methods instead.
+     * */
+    public TopicaScheduler() {
+        throw new IllegalStateException("Cannot instantiate a utility class.");
+    }
+
+    /**
+     * Schedules a task that runs at a fixed rate.
+     * @param owner The owner of the task (e.g. the topic or connection).
+     * @param task The task to run.
+     * @param delay The delay before the first run.
+     * @param period The period between the start of each run.
+     * @param unit The unit of the delay and period.
+     * @return The future of the task, which can be cancelled with {@link #cancel(Object, ScheduledFuture)}.
+     * */
+    public static ScheduledFuture<?> scheduleAtFixedRate(Object owner, Runnable task, long delay, long period, TimeUnit unit) {
+        return track(owner, executor.scheduleAtFixedRate(guard(task), delay, period, unit));
+    }
+
+    /**
+     * Schedules a task that runs with a fixed delay between the end of one run and the start of the next.
+     * @param owner The owner of the task (e.g. the topic or connection).
+     * @param task The task to run.
+     * @param delay The delay before the first run.
+     * @param period The delay between the end of one run and the start of the next.
+     * @param unit The unit of the delay and period.
+     * @return The future of the task, which can be cancelled with {@link #cancel(Object, ScheduledFuture)}.
+     * */
+    public static ScheduledFuture<?> scheduleWithFixedDelay(Object owner, Runnable task, long delay, long period, TimeUnit unit) {
+        return track(owner, executor.scheduleWithFixedDelay(guard(task), delay, period, unit));
+    }
+
+    /**
+     * Schedules a task that runs once. One-shot tasks are not tracked or counted.
+     * @param task The task to run.
+     * @param delay The delay before the task runs.
+     * @param unit The unit of the delay.
+     * @return The future of the task.
+     * */
+    public static ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return executor.schedule(guard(task), delay, unit);
+    }
+
+    /**
+     * Cancels a periodic task.
+     * @param owner The owner of the task.
+     * @param future The future of the task.
+     * */
+    public static void cancel(Object owner, ScheduledFuture<?> future) {
+        if (future == null) {
+            return;
+        }
+
+        future.cancel(false);
+
+        boolean[] removed = new boolean[1];
+
+        tasks.computeIfPresent(owner, (key, owned) -> {
+            removed[0] = owned.remove(future);
+            return owned.isEmpty() ? null : owned;
+        });
+
+        if (removed[0]) {
+            publishTaskCount(taskCount.decrementAndGet());
+        }
+    }
+
+    /**
+     * Cancels all periodic tasks of an owner.
+     * @param owner The owner of the tasks.
+     * */
+    public static void cancelAll(Object owner) {
+        Set<ScheduledFuture<?>> owned = tasks.remove(owner);
+
+        if (owned == null) {
+            return;
+        }
+
+        int cancelled = 0;
+
+        for (ScheduledFuture<?> future : owned) {
+            future.cancel(false);
+            cancelled++;
+        }
+
+        publishTaskCount(taskCount.addAndGet(-cancelled));
+    }
+
+    /**
+     * Gets the number of live periodic tasks.
+     * @return The number of live periodic tasks.
+     * */
+    public static int getTaskCount() {
+        return taskCount.get();
+    }
+
+    /**
+     * Starts tracking a periodic task under its owner.
+     * @param owner The owner of the task.
+     * @param future The future of the task.
+     * @return The future of the task.
+     * */
+    private static ScheduledFuture<?> track(Object owner, ScheduledFuture<?> future) {
+        tasks.compute(owner, (key, owned) -> {
+            if (owned == null) {
+                owned = ConcurrentHashMap.newKeySet();
+            }
+
+            owned.add(future);
+            return owned;
+        });
+
+        publishTaskCount(taskCount.incrementAndGet());
+
+        return future;
+    }
+
+    /**
+     * Wraps a task so an exception doesn't silently stop it from running again.
+     * @param task The task to wrap.
+     * @return The wrapped task.
+     * */
+    private static Runnable guard(Runnable task) {
+        return () -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        };
+    }
+
+    /**
+     * Publishes the number of live periodic tasks to Topica.
+     * @param count The number of live periodic tasks.
+     * */
+    private static void publishTaskCount(int count) {
+        Topica.Database.Topic topic = Topica.getDatabase().getTopic(TASK_COUNT_TOPIC);
+
+        if (topic != null) {
+            topic.update(count);
+        }
+    }
+}
@@ -1,8 +1,18 @@
 package me.autobot.lib.systems.mechanisms;
 
 import me.autobot.lib.robot.Robot;
+import me.autobot.lib.server.topica.Topica;
 
 import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A mechanism that can be used on the robot.
@@ -14,6 +24,22 @@ public class Mechanism {
      * */
     private static ArrayList<Mechanism> mechanisms = new ArrayList<>();
 
+    /**
+     * Runs the init, update and stop methods of all mechanisms.
+     * Virtual threads if the JDK has them, otherwise a pool of reused threads.
+     * */
+    private static final ExecutorService executor = createExecutor();
+
+    /**
+     * If update_all should wait for every mechanism to finish updating (or reach its deadline) before returning.
+     * */
+    private static volatile boolean barrier = false;
+
+    /**
+     * The longest stop_all waits for the mechanisms to stop, in ms.
+     * */
+    private static final long STOP_TIMEOUT = 1000;
+
     /**
      * If the mechanism is disabled.
      * */
@@ -24,51 +50,320 @@ public class Mechanism {
      * */
     protected Robot parent;
 
+    // if the mechanism is running a method, so updates from one tick never overlap the next
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    // the maximum time an update should take in ms, 0 to use the loop time of the robot
+    private volatile long deadline = 0;
+
+    private final AtomicLong overruns = new AtomicLong(0);
+    private final AtomicLong skipped = new AtomicLong(0);
+    private volatile long lastUpdateTime = 0;
+
+    // the name of the mechanism, null for the default
+    private volatile String name;
+
+    // the number of mechanisms of the same class created before this one
+    private final int instance;
+
+    private Topica.Database.Topic updateTimeTopic;
+    private Topica.Database.Topic overrunsTopic;
+    private Topica.Database.Topic skippedTopic;
+
+    /**
+     * Creates the executor the mechanisms run on.
+     * @return A virtual thread per task executor if the JDK supports it, otherwise a cached thread pool.
+     * */
+    private static ExecutorService createExecutor() {
+        try {
+            // looked up reflectively so this still runs on JDKs without virtual threads
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger threadNumber = new AtomicInteger(0);
+
+            return Executors.newCachedThreadPool((runnable) -> {
+                Thread thread = new Thread(runnable, "mechanism-" + threadNumber.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
     /**
      * Runs the init method on all mechanisms.
+     * A mechanism isn't updated until its init method has finished.
      * @param robotRef The robot reference.
      * */
     public static void init_all(Robot robotRef) {
         for (Mechanism mechanism : mechanisms) {
             mechanism.parent = robotRef;
+            mechanism.createTopics();
+
             if (mechanism.isDisabled()) continue;
 
-            Thread t = new Thread(mechanism::init);
-            t.start();
+            mechanism.running.set(true);
+
+            executor.execute(() -> {
+                try {
+                    mechanism.init();
+                } catch (Exception e) {
+                    System.out.println("[WARNING] Mechanism " + mechanism.getName() + " threw an exception while initializing:");
+                    e.printStackTrace();
+                } finally {
+                    mechanism.running.set(false);
+                }
+            });
         }
     }
 
     /**
      * Runs the update method on all mechanisms.
+     * A mechanism that is still running its last update (or init) is skipped for this tick.
+     * If the barrier is enabled, this waits until every mechanism has finished updating or reached its deadline.
+     * @see #setBarrier(boolean)
      * */
     public static void update_all() {
+        if (!barrier) {
+            for (Mechanism mechanism : mechanisms) {
+                mechanism.submitUpdate();
+            }
+
+            return;
+        }
+
+        long start = System.nanoTime();
+
+        ArrayList<Future<?>> updates = new ArrayList<>(mechanisms.size());
+        ArrayList<Mechanism> updated = new ArrayList<>(mechanisms.size());
+
         for (Mechanism mechanism : mechanisms) {
-            if (mechanism.isDisabled()) continue;
+            Future<?> update = mechanism.submitUpdate();
 
-            Thread t = new Thread(mechanism::update);
-            t.start();
+            if (update != null) {
+                updates.add(update);
+                updated.add(mechanism);
+            }
+        }
+
+        for (int i = 0; i < updates.size(); i++) {
+            long remaining = start + updated.get(i).getDeadline() * 1_000_000 - System.nanoTime();
+
+            try {
+                updates.get(i).get(Math.max(remaining, 0), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                // it keeps running, and is counted as an overrun when it finishes
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException ignored) {
+                // already reported by the update itself
+            }
         }
     }
 
     /**
-     * Runs the stop method on all mechanisms.
+     * Runs the stop method on all mechanisms, and waits for them to finish (up to {@value #STOP_TIMEOUT}ms in total),
+     * so anything they queue while stopping (e.g. motor commands) can be sent right after.
      * */
     public static void stop_all() {
+        ArrayList<Future<?>> stops = new ArrayList<>(mechanisms.size());
+
         for (Mechanism mechanism : mechanisms) {
             if (mechanism.isDisabled()) continue;
 
-            Thread t = new Thread(mechanism::stop);
-            t.start();
+            stops.add(executor.submit(() -> {
+                try {
+                    mechanism.stop();
+                } catch (Exception e) {
+                    System.out.println("[WARNING] Mechanism " + mechanism.getName() + " threw an exception while stopping:");
+                    e.printStackTrace();
+                }
+            }));
+        }
+
+        long end = System.nanoTime() + STOP_TIMEOUT * 1_000_000;
+
+        for (Future<?> stop : stops) {
+            try {
+                stop.get(Math.max(end - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                System.out.println("[WARNING] A mechanism took longer than " + STOP_TIMEOUT + "ms to stop.");
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException ignored) {
+                // already reported by the stop itself
+            }
         }
     }
 
+    /**
+     * Sets if update_all waits for every mechanism to finish updating (or reach its deadline) before returning,
+     * so the robot loop sees the results of the updates of the same tick.
+     * @param barrier Whether update_all should wait for the mechanisms.
+     * */
+    public static void setBarrier(boolean barrier) {
+        Mechanism.barrier = barrier;
+    }
+
+    /**
+     * Gets if update_all waits for every mechanism to finish updating.
+     * @return Whether update_all waits for the mechanisms.
+     * */
+    public static boolean hasBarrier() {
+        return barrier;
+    }
+
     /**
      * Creates a new Mechanism.
      * */
     public Mechanism() {
+        int instance = 0;
+
+        for (Mechanism mechanism : mechanisms) {
+            if (mechanism.getClass() == getClass()) {
+                instance++;
+            }
+        }
+
+        this.instance = instance;
+
         mechanisms.add(this);
     }
 
+    /**
+     * Submits an update of the mechanism, unless it is disabled or still running.
+     * @return The future of the update, or null if it wasn't submitted.
+     * */
+    private Future<?> submitUpdate() {
+        if (isDisabled()) return null;
+
+        if (!running.compareAndSet(false, true)) {
+            long count = skipped.incrementAndGet();
+
+            if (skippedTopic != null) {
+                skippedTopic.update(count);
+            }
+
+            return null;
+        }
+
+        return executor.submit(this::runUpdate);
+    }
+
+    /**
+     * Runs an update of the mechanism, and reports it if it took longer than its deadline.
+     * */
+    private void runUpdate() {
+        long start = System.nanoTime();
+
+        try {
+            update();
+        } catch (Exception e) {
+            System.out.println("[WARNING] Mechanism " + getName() + " threw an exception while updating:");
+            e.printStackTrace();
+        } finally {
+            running.set(false);
+        }
+
+        long elapsed = System.nanoTime() - start;
+        lastUpdateTime = elapsed;
+
+        if (updateTimeTopic != null) {
+            updateTimeTopic.update(elapsed / 1e6);
+        }
+
+        long deadline = getDeadline();
+
+        if (elapsed > deadline * 1_000_000) {
+            long count = overruns.incrementAndGet();
+
+            if (overrunsTopic != null) {
+                overrunsTopic.update(count);
+            }
+
+            // don't flood the console if it's always over
+            if (count == 1 || count % 100 == 0) {
+                System.out.printf("[WARNING] Mechanism %s took %.1fms to update, over its %dms deadline (%d overruns).%n", getName(), elapsed / 1e6, deadline, count);
+            }
+        }
+    }
+
+    /**
+     * Creates the topics the mechanism reports its timing to, under /robot/mechanisms/[name]/.
+     * */
+    private void createTopics() {
+        if (updateTimeTopic != null) return;
+
+        String path = "/robot/mechanisms/" + getName();
+
+        updateTimeTopic = Topica.topic(path + "/update_time", Topica.DOUBLE_TYPE);
+        overrunsTopic = Topica.topic(path + "/overruns", Topica.LONG_TYPE);
+        skippedTopic = Topica.topic(path + "/skipped", Topica.LONG_TYPE);
+    }
+
+    /**
+     * Gets the name of the mechanism, used in its topics and warnings.
+     * @return The name of the mechanism. By default, the simple name of its class, followed by "-" and its index if it isn't the first mechanism of that class (e.g. HoverboardWheel-1).
+     * */
+    public String getName() {
+        if (name != null) return name;
+
+        return instance == 0 ? getClass().getSimpleName() : getClass().getSimpleName() + "-" + instance;
+    }
+
+    /**
+     * Sets the name of the mechanism, used in its topics and warnings. Should be set before the robot starts, since that's when its topics are created.
+     * @param name The name of the mechanism, or null for the default.
+     * */
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Sets the maximum time an update of the mechanism should take.
+     * Updates that take longer are counted as overruns, and the barrier stops waiting for the mechanism after it.
+     * @param deadline The deadline in ms, or 0 to use the loop time of the robot.
+     * */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Gets the maximum time an update of the mechanism should take.
+     * @return The deadline in ms.
+     * */
+    public long getDeadline() {
+        if (deadline > 0) return deadline;
+
+        return parent != null ? parent.getLoopTime() : 50;
+    }
+
+    /**
+     * Gets the number of updates that took longer than the deadline.
+     * @return The number of overruns.
+     * */
+    public long getOverruns() {
+        return overruns.get();
+    }
+
+    /**
+     * Gets the number of ticks the mechanism was skipped because it was still running.
+     * @return The number of skipped updates.
+     * */
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     * Gets how long the last update took.
+     * @return The time of the last update in ms.
+     * */
+    public double getLastUpdateTime() {
+        return lastUpdateTime / 1e6;
+    }
+
     /**
      * Initializes the mechanism.
      * */
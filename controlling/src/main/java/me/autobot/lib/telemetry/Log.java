@@ -1,8 +1,17 @@
 package me.autobot.lib.telemetry;
 
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
 /**
  * Annotation to mark fields and methods that should be logged.
+ * Methods must take no arguments and return a value.
+ * @see LogSampler
  * */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.FIELD, ElementType.METHOD })
 public @interface Log {
     /**
      * What the log is saved as.
@@ -0,0 +1,310 @@
+package me.autobot.lib.telemetry;
+
+import me.autobot.lib.server.topica.Topica;
+import me.autobot.lib.server.topica.TopicaScheduler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the {@link Log} members of every registered object at a fixed rate, and publishes them to Topica.
+ * <p>
+ * Objects are grouped by class, and every class has a columnar buffer: one primitive column per member, with a row per instance.
+ * A sample reads every member through the compiled getters of the {@link LogSchema} of the class straight into the columns,
+ * without boxing or converting to strings, and only the values that changed since the last sample are published.
+ * <p>
+ * Each member is published to {@code /log/[class]/[instance]/[member]}, where the instance is the index of the object among the registered objects of its class.
+ * The rate is set in {@value #RATE_TOPIC} (in Hz, 0 to stop sampling).
+ * */
+public class LogSampler {
+    /**
+     * The topic the sample rate is set in, in Hz.
+     * */
+    public static final String RATE_TOPIC = "/log/rate";
+
+    /**
+     * The default sample rate, in Hz.
+     * */
+    public static final int DEFAULT_RATE = 50;
+
+    /**
+     * The highest sample rate, in Hz. Faster rates are clamped to it.
+     * */
+    public static final int MAX_RATE = 1000;
+
+    /**
+     * The columnar buffer of the registered instances of a class.
+     * */
+    private static class ClassBuffer {
+        private final LogSchema schema;
+        private final String path;
+
+        private Object[] instances = new Object[4];
+        private int count = 0;
+
+        // [member][instance], only the columns of the kind of the member are used
+        private double[][] numbers;
+        private boolean[][] booleans;
+        private Object[][] objects;
+
+        // whether the value in the column has been published yet
+        private boolean[][] published;
+
+        private Topica.Database.Topic[][] topics;
+
+        /**
+         * Creates a new buffer for a class.
+         * @param type The class.
+         * */
+        private ClassBuffer(Class<?> type) {
+            this.schema = LogSchema.of(type);
+            this.path = "/log/" + type.getSimpleName();
+
+            int members = schema.size();
+
+            numbers = new double[members][];
+            booleans = new boolean[members][];
+            objects = new Object[members][];
+            published = new boolean[members][];
+            topics = new Topica.Database.Topic[members][];
+
+            for (int member = 0; member < members; member++) {
+                switch (schema.getKind(member)) {
+                    case LogSchema.NUMBER:
+                        numbers[member] = new double[instances.length];
+                        break;
+                    case LogSchema.BOOLEAN:
+                        booleans[member] = new boolean[instances.length];
+                        break;
+                    default:
+                        objects[member] = new Object[instances.length];
+                        break;
+                }
+
+                published[member] = new boolean[instances.length];
+                topics[member] = new Topica.Database.Topic[instances.length];
+            }
+        }
+
+        /**
+         * Adds an instance to the buffer, growing the columns if needed.
+         * @param instance The instance to add.
+         * */
+        private void add(Object instance) {
+            if (count == instances.length) {
+                int capacity = instances.length * 2;
+
+                instances = Arrays.copyOf(instances, capacity);
+
+                for (int member = 0; member < schema.size(); member++) {
+                    if (numbers[member] != null) numbers[member] = Arrays.copyOf(numbers[member], capacity);
+                    if (booleans[member] != null) booleans[member] = Arrays.copyOf(booleans[member], capacity);
+                    if (objects[member] != null) objects[member] = Arrays.copyOf(objects[member], capacity);
+
+                    published[member] = Arrays.copyOf(published[member], capacity);
+                    topics[member] = Arrays.copyOf(topics[member], capacity);
+                }
+            }
+
+            int row = count++;
+            instances[row] = instance;
+
+            for (int member = 0; member < schema.size(); member++) {
+                byte type;
+
+                switch (schema.getKind(member)) {
+                    case LogSchema.NUMBER:
+                        type = Topica.DOUBLE_TYPE;
+                        break;
+                    case LogSchema.BOOLEAN:
+                        type = Topica.BOOLEAN_TYPE;
+                        break;
+                    default:
+                        type = Topica.STRING_TYPE;
+                        break;
+                }
+
+                topics[member][row] = Topica.topic(path + "/" + row + "/" + schema.getName(member), type);
+            }
+        }
+
+        /**
+         * Samples every member of every instance, column by column, and publishes the values that changed.
+         * */
+        private void sample() {
+            for (int member = 0; member < schema.size(); member++) {
+                switch (schema.getKind(member)) {
+                    case LogSchema.NUMBER: {
+                        double[] column = numbers[member];
+
+                        for (int row = 0; row < count; row++) {
+                            try {
+                                double value = schema.readNumber(member, instances[row]);
+
+                                if (!published[member][row] || Double.doubleToRawLongBits(value) != Double.doubleToRawLongBits(column[row])) {
+                                    column[row] = value;
+                                    published[member][row] = true;
+                                    topics[member][row].update(value);
+                                }
+                            } catch (Throwable ignored) {
+                                // e.g. a logged method that threw, try again next sample
+                            }
+                        }
+
+                        break;
+                    }
+                    case LogSchema.BOOLEAN: {
+                        boolean[] column = booleans[member];
+
+                        for (int row = 0; row < count; row++) {
+                            try {
+                                boolean value = schema.readBoolean(member, instances[row]);
+
+                                if (!published[member][row] || value != column[row]) {
+                                    column[row] = value;
+                                    published[member][row] = true;
+                                    topics[member][row].update(value);
+                                }
+                            } catch (Throwable ignored) {
+                                // try again next sample
+                            }
+                        }
+
+                        break;
+                    }
+                    default: {
+                        Object[] column = objects[member];
+
+                        for (int row = 0; row < count; row++) {
+                            try {
+                                Object value = schema.readObject(member, instances[row]);
+
+                                // only objects that changed are turned into strings
+                                if (!published[member][row] || value != column[row] && (value == null || !value.equals(column[row]))) {
+                                    column[row] = value;
+                                    published[member][row] = true;
+                                    topics[member][row].update(String.valueOf(value));
+                                }
+                            } catch (Throwable ignored) {
+                                // try again next sample
+                            }
+                        }
+
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private static final IdentityHashMap<Class<?>, ClassBuffer> buffers = new IdentityHashMap<>();
+    private static final ArrayList<ClassBuffer> bufferList = new ArrayList<>();
+
+    private static ScheduledFuture<?> task;
+    private static boolean started = false;
+
+    /**
+     * Cannot instantiate a utility class.
+     * */
+    private LogSampler() {
+        throw new IllegalStateException("Cannot instantiate a utility class.");
+    }
+
+    /**
+     * Registers an object to be sampled. Registering an object more than once does nothing.
+     * @param instance The object to sample.
+     * */
+    public static synchronized void register(Object instance) {
+        ClassBuffer buffer = buffers.get(instance.getClass());
+
+        if (buffer == null) {
+            buffer = new ClassBuffer(instance.getClass());
+
+            // nothing to log, but remember it so the class isn't looked at again
+            buffers.put(instance.getClass(), buffer);
+
+            if (buffer.schema.size() > 0) {
+                bufferList.add(buffer);
+            }
+        }
+
+        if (buffer.schema.size() == 0) {
+            return;
+        }
+
+        for (int row = 0; row < buffer.count; row++) {
+            if (buffer.instances[row] == instance) {
+                return;
+            }
+        }
+
+        buffer.add(instance);
+    }
+
+    /**
+     * Starts sampling at the rate in {@value #RATE_TOPIC}, and follows changes to it.
+     * */
+    public static synchronized void start() {
+        if (started) {
+            return;
+        }
+
+        started = true;
+
+        Topica.Database.Topic rate = Topica.getDatabase().getTopic(RATE_TOPIC);
+
+        if (rate == null) {
+            rate = new Topica.Database.Topic(RATE_TOPIC, DEFAULT_RATE);
+        }
+
+        rate.addCallback((topic) -> setRate(readRate(topic)));
+
+        setRate(readRate(rate));
+    }
+
+    /**
+     * Reads the rate from {@value #RATE_TOPIC}, which any client can set.
+     * @param topic The rate topic.
+     * @return The rate in Hz, or {@link #DEFAULT_RATE} if the topic isn't a valid int.
+     * */
+    private static int readRate(Topica.Database.Topic topic) {
+        synchronized (topic) {
+            if (topic.getType() != Topica.INT_TYPE || topic.getData().length < Integer.BYTES) {
+                return DEFAULT_RATE;
+            }
+
+            return topic.getAsInt();
+        }
+    }
+
+    /**
+     * Sets the rate of the sampling.
+     * @param rate The rate in Hz (up to {@value #MAX_RATE}), 0 or less to stop sampling.
+     * */
+    public static synchronized void setRate(int rate) {
+        if (task != null) {
+            TopicaScheduler.cancel(LogSampler.class, task);
+            task = null;
+        }
+
+        if (rate <= 0) {
+            return;
+        }
+
+        long period = 1_000_000_000L / Math.min(rate, MAX_RATE);
+
+        task = TopicaScheduler.scheduleAtFixedRate(LogSampler.class, LogSampler::sample, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Takes a sample of every registered object, and publishes the values that changed.
+     * */
+    public static synchronized void sample() {
+        for (ClassBuffer buffer : bufferList) {
+            buffer.sample();
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package me.autobot.lib.telemetry;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The fields and methods annotated with {@link Log} of a class, found once and compiled into {@link MethodHandle} getters.
+ * <p>
+ * Every member gets a kind: numbers (primitive or boxed) are read as doubles and booleans as booleans, without boxing,
+ * and everything else is read as an object. Members of the superclasses are included, and a member of a subclass hides
+ * a member of a superclass with the same name.
+ * */
+public class LogSchema {
+    /**
+     * The member is a number, read as a double.
+     * */
+    public static final int NUMBER = 0;
+
+    /**
+     * The member is a boolean.
+     * */
+    public static final int BOOLEAN = 1;
+
+    /**
+     * The member is any other object.
+     * */
+    public static final int OBJECT = 2;
+
+    private static final MethodType NUMBER_GETTER = MethodType.methodType(double.class, Object.class);
+    private static final MethodType BOOLEAN_GETTER = MethodType.methodType(boolean.class, Object.class);
+    private static final MethodType OBJECT_GETTER = MethodType.methodType(Object.class, Object.class);
+
+    private static final ClassValue<LogSchema> schemas = new ClassValue<>() {
+        @Override
+        protected LogSchema computeValue(Class<?> type) {
+            return new LogSchema(type);
+        }
+    };
+
+    private final String[] names;
+    private final int[] kinds;
+    private final MethodHandle[] getters;
+
+    /**
+     * Gets the schema of a class, compiling it the first time.
+     * @param type The class.
+     * @return The schema of the class.
+     * */
+    public static LogSchema of(Class<?> type) {
+        return schemas.get(type);
+    }
+
+    /**
+     * Compiles the schema of a class.
+     * @param type The class.
+     * */
+    private LogSchema(Class<?> type) {
+        ArrayList<String> names = new ArrayList<>();
+        ArrayList<Integer> kinds = new ArrayList<>();
+        ArrayList<MethodHandle> getters = new ArrayList<>();
+
+        Set<String> seen = new HashSet<>();
+
+        for (Class<?> clazz = type; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+            MethodHandles.Lookup lookup;
+
+            try {
+                lookup = MethodHandles.privateLookupIn(clazz, MethodHandles.lookup());
+            } catch (IllegalAccessException e) {
+                System.out.println("[WARNING] Cannot log the members of " + clazz.getName() + ": " + e.getMessage());
+                continue;
+            }
+
+            for (Field field : clazz.getDeclaredFields()) {
+                Log log = field.getAnnotation(Log.class);
+
+                if (log == null || Modifier.isStatic(field.getModifiers())) continue;
+
+                String name = log.as().isEmpty() ? field.getName() : log.as();
+
+                if (!seen.add(name)) continue;
+
+                try {
+                    add(names, kinds, getters, name, field.getType(), lookup.unreflectGetter(field));
+                } catch (IllegalAccessException e) {
+                    System.out.println("[WARNING] Cannot log " + clazz.getSimpleName() + "." + field.getName() + ": " + e.getMessage());
+                }
+            }
+
+            for (Method method : clazz.getDeclaredMethods()) {
+                Log log = method.getAnnotation(Log.class);
+
+                if (log == null || Modifier.isStatic(method.getModifiers()) || method.getParameterCount() != 0 || method.getReturnType() == void.class) continue;
+
+                String name = log.as().isEmpty() ? method.getName() : log.as();
+
+                if (!seen.add(name)) continue;
+
+                try {
+                    add(names, kinds, getters, name, method.getReturnType(), lookup.unreflect(method));
+                } catch (IllegalAccessException e) {
+                    System.out.println("[WARNING] Cannot log " + clazz.getSimpleName() + "." + method.getName() + "(): " + e.getMessage());
+                }
+            }
+        }
+
+        this.names = names.toArray(new String[0]);
+        this.kinds = kinds.stream().mapToInt(Integer::intValue).toArray();
+        this.getters = getters.toArray(new MethodHandle[0]);
+    }
+
+    /**
+     * Adds a member to the schema, adapting its getter to the kind of the member.
+     * @param names The names of the members.
+     * @param kinds The kinds of the members.
+     * @param getters The getters of the members.
+     * @param name The name of the member.
+     * @param type The type of the member.
+     * @param getter The getter of the member, taking the instance.
+     * */
+    private static void add(ArrayList<String> names, ArrayList<Integer> kinds, ArrayList<MethodHandle> getters, String name, Class<?> type, MethodHandle getter) {
+        int kind;
+        MethodType getterType;
+
+        if (type == boolean.class || type == Boolean.class) {
+            kind = BOOLEAN;
+            getterType = BOOLEAN_GETTER;
+        } else if (type.isPrimitive() && type != char.class || type == Double.class || type == Float.class || type == Long.class || type == Integer.class || type == Short.class || type == Byte.class) {
+            kind = NUMBER;
+            getterType = NUMBER_GETTER;
+        } else {
+            kind = OBJECT;
+            getterType = OBJECT_GETTER;
+        }
+
+        names.add(name);
+        kinds.add(kind);
+        getters.add(getter.asType(getterType));
+    }
+
+    /**
+     * Gets the number of logged members.
+     * @return The number of logged members.
+     * */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * Gets the name of a member.
+     * @param member The index of the member.
+     * @return The name the member is logged as.
+     * */
+    public String getName(int member) {
+        return names[member];
+    }
+
+    /**
+     * Gets the kind of a member.
+     * @param member The index of the member.
+     * @return The kind of the member, {@link #NUMBER}, {@link #BOOLEAN} or {@link #OBJECT}.
+     * */
+    public int getKind(int member) {
+        return kinds[member];
+    }
+
+    /**
+     * Reads a number member.
+     * @param member The index of the member, which must be a {@link #NUMBER}.
+     * @param instance The instance to read from.
+     * @return The value of the member.
+     * @throws Throwable If the getter throws (e.g. a logged method, or a null boxed number).
+     * */
+    public double readNumber(int member, Object instance) throws Throwable {
+        return (double) getters[member].invokeExact(instance);
+    }
+
+    /**
+     * Reads a boolean member.
+     * @param member The index of the member, which must be a {@link #BOOLEAN}.
+     * @param instance The instance to read from.
+     * @return The value of the member.
+     * @throws Throwable If the getter throws (e.g. a logged method, or a null boxed boolean).
+     * */
+    public boolean readBoolean(int member, Object instance) throws Throwable {
+        return (boolean) getters[member].invokeExact(instance);
+    }
+
+    /**
+     * Reads an object member.
+     * @param member The index of the member, which must be an {@link #OBJECT}.
+     * @param instance The instance to read from.
+     * @return The value of the member.
+     * @throws Throwable If the getter throws (e.g. a logged method).
+     * */
+    public Object readObject(int member, Object instance) throws Throwable {
+        return (Object) getters[member].invokeExact(instance);
+    }
+
+    /**
+     * Reads every member of an instance. This boxes the values, so it's meant for one-off reads, not sampling.
+     * @param instance The instance to read from.
+     * @return The values of the members, by name. Members that fail to read are left out.
+     * */
+    public HashMap<String, Object> read(Object instance) {
+        HashMap<String, Object> values = new HashMap<>();
+
+        for (int member = 0; member < names.length; member++) {
+            try {
+                switch (kinds[member]) {
+                    case NUMBER:
+                        values.put(names[member], readNumber(member, instance));
+                        break;
+                    case BOOLEAN:
+                        values.put(names[member], readBoolean(member, instance));
+                        break;
+                    default:
+                        values.put(names[member], readObject(member, instance));
+                        break;
+                }
+            } catch (Throwable e) {
+                // leave it out
+            }
+        }
+
+        return values;
+    }
+}
@@ -0,0 +1,508 @@
+package me.autobot.simulation;
+
+import me.autobot.lib.math.Clock;
+import me.autobot.lib.server.topica.Topica;
+import me.autobot.lib.server.topica.TopicTrie;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the inputs a robot consumes (sensor values, gamepad topics and websocket sensor frames) to a file,
+ * so the run can be played back later in simulation with {@link Replay}.
+ * <p>
+ * The file starts with a header of [magic "TCAP"][version (short)][start time (long, ms since the epoch)],
+ * followed by events of [kind (byte)][time since the start (long, ms)][payload], where the payload depends on the kind:
+ * <ul>
+ *     <li>{@link #SENSOR_VALUE}: [robot (byte)][sensor identifier (int)][index (int)][value (double)]</li>
+ *     <li>{@link #SENSOR_VALUES}: [robot (byte)][sensor identifier (int)][count (int)][values (double)...]</li>
+ *     <li>{@link #TOPIC}: [path (modified UTF-8)][type (byte)][length (int)][data...]</li>
+ *     <li>{@link #FRAME}: [connection id (int)][length (int)][data...]</li>
+ * </ul>
+ * The threads reporting inputs only encode the event and put it in a queue, and a background thread writes the queue to disk (flushing every second),
+ * so a reader thread never waits on the disk. If the writer falls more than {@value #MAX_QUEUED_BYTES} bytes behind, new events are dropped (and counted).
+ * */
+public class Capture {
+    /**
+     * The magic bytes at the start of a capture ("TCAP").
+     * */
+    public static final int MAGIC = 0x54434150;
+
+    /**
+     * The version of the capture format.
+     * */
+    public static final short VERSION = 1;
+
+    /**
+     * A single sensor channel was set.
+     * */
+    public static final byte SENSOR_VALUE = 0x01;
+
+    /**
+     * All of the channels of a sensor were set.
+     * */
+    public static final byte SENSOR_VALUES = 0x02;
+
+    /**
+     * A captured topic was updated.
+     * */
+    public static final byte TOPIC = 0x03;
+
+    /**
+     * A websocket sensor connection received a frame.
+     * */
+    public static final byte FRAME = 0x04;
+
+    /**
+     * The topics that are captured by default: everything under the gamepads.
+     * */
+    public static final String[] DEFAULT_TOPICS = { "/gamepad1/**", "/gamepad2/**" };
+
+    /**
+     * The system property that starts a capture to the given file when the robot starts.
+     * */
+    public static final String CAPTURE_PROPERTY = "autobot.capture";
+
+    /**
+     * The most bytes of events that can wait to be written, before new events are dropped.
+     * */
+    public static final int MAX_QUEUED_BYTES = 8 * 1024 * 1024;
+
+    private static final long FLUSH_INTERVAL = 1000;
+
+    // the kind and the time of an event
+    private static final int HEADER_SIZE = 1 + Long.BYTES;
+
+    private static volatile boolean capturing = false;
+
+    private static DataOutputStream out;
+    private static long startTime;
+
+    private static Thread writer;
+
+    // events waiting to be written, guarded by itself
+    private static final ArrayDeque<byte[]> queue = new ArrayDeque<>();
+    private static long queuedBytes = 0;
+    private static long droppedEvents = 0;
+
+    private static String[] patterns;
+    private static final List<Topica.Database.Topic> captured = new ArrayList<>();
+
+    private static final Topica.Database.Topic.UpdateCallback topicCallback = Capture::topic;
+    private static final Topica.Database.CreationCallback creationCallback = Capture::attach;
+
+    private static Thread shutdownHook;
+
+    /**
+     * Cannot instantiate a utility class.
+     * */
+    private Capture() {
+        throw new IllegalStateException("Cannot instantiate a utility class.");
+    }
+
+    /**
+     * Starts capturing if the {@value #CAPTURE_PROPERTY} system property is set (e.g. -Dautobot.capture=captures/run.tcap).
+     * */
+    public static void startFromProperty() {
+        String file = System.getProperty(CAPTURE_PROPERTY);
+
+        if (file == null || file.isEmpty() || capturing) {
+            return;
+        }
+
+        try {
+            start(Path.of(file));
+        } catch (IOException e) {
+            System.out.println("[WARNING] Could not start capture to " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Starts capturing to a file, with the default gamepad topics.
+     * @param file The file to capture to. It is overwritten if it exists.
+     * @throws IOException If the file cannot be created.
+     * */
+    public static void start(Path file) throws IOException {
+        start(file, DEFAULT_TOPICS);
+    }
+
+    /**
+     * Starts capturing to a file.
+     * @param file The file to capture to. It is overwritten if it exists.
+     * @param topics The patterns of the topics to capture (see {@link TopicTrie}).
+     * @throws IOException If the file cannot be created.
+     * */
+    public static void start(Path file, String... topics) throws IOException {
+        open(file, topics);
+
+        // attached outside of the lock, since recording a topic locks the topic first
+        Topica.Database database = Topica.getDatabase();
+
+        if (database != null) {
+            for (String pattern : patterns) {
+                for (Topica.Database.Topic topic : database.getTopics(pattern)) {
+                    attach(topic);
+                }
+            }
+
+            database.addCreationCallback(creationCallback);
+        }
+
+        System.out.println("[INFO] Capturing inputs to " + file + ".");
+    }
+
+    /**
+     * Opens the capture file and writes the header.
+     * @param file The file to capture to.
+     * @param topics The patterns of the topics to capture.
+     * @throws IOException If the file cannot be created.
+     * */
+    private static synchronized void open(Path file, String[] topics) throws IOException {
+        if (writer != null) {
+            throw new IllegalStateException("A capture is already running.");
+        }
+
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+
+        startTime = Clock.now();
+
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024));
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeLong(startTime);
+
+        patterns = topics.clone();
+
+        synchronized (queue) {
+            queue.clear();
+            queuedBytes = 0;
+            droppedEvents = 0;
+        }
+
+        capturing = true;
+
+        DataOutputStream stream = out;
+
+        writer = new Thread(() -> runWriter(stream), "capture-writer");
+        writer.setDaemon(true);
+        writer.start();
+
+        // don't lose the end of the capture when the program is stopped
+        shutdownHook = new Thread(Capture::stop);
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Stops capturing, and closes the file.
+     * */
+    public static synchronized void stop() {
+        if (writer == null) {
+            return;
+        }
+
+        capturing = false;
+
+        synchronized (queue) {
+            queue.notifyAll();
+        }
+
+        Topica.Database database = Topica.getDatabase();
+
+        if (database != null) {
+            database.removeCreationCallback(creationCallback);
+        }
+
+        for (Topica.Database.Topic topic : captured) {
+            topic.removeCallback(topicCallback);
+        }
+
+        captured.clear();
+
+        // the writer writes what is still queued before it stops
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        writer = null;
+
+        try {
+            out.close();
+        } catch (IOException e) {
+            System.out.println("[WARNING] Could not close capture: " + e.getMessage());
+        }
+
+        out = null;
+
+        if (droppedEvents > 0) {
+            System.out.println("[WARNING] Capture dropped " + droppedEvents + " events because the disk couldn't keep up.");
+        }
+
+        if (shutdownHook != null && Thread.currentThread() != shutdownHook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException ignored) {
+                // already shutting down
+            }
+        }
+
+        shutdownHook = null;
+    }
+
+    /**
+     * Checks if a capture is running.
+     * @return Whether a capture is running.
+     * */
+    public static boolean isCapturing() {
+        return capturing;
+    }
+
+    /**
+     * Gets the number of events that were dropped because too many were waiting to be written.
+     * @return The number of dropped events.
+     * */
+    public static long getDroppedEvents() {
+        synchronized (queue) {
+            return droppedEvents;
+        }
+    }
+
+    /**
+     * Records a single sensor channel being set.
+     * @param robot The identification of the robot the sensor is on.
+     * @param identifier The identifier of the sensor.
+     * @param index The index of the channel.
+     * @param value The value of the channel.
+     * */
+    public static void sensorValue(byte robot, int identifier, int index, double value) {
+        if (!capturing) {
+            return;
+        }
+
+        ByteBuffer event = event(SENSOR_VALUE, 1 + 4 + 4 + 8);
+        event.put(robot);
+        event.putInt(identifier);
+        event.putInt(index);
+        event.putDouble(value);
+
+        enqueue(event.array());
+    }
+
+    /**
+     * Records all of the channels of a sensor being set.
+     * @param robot The identification of the robot the sensor is on.
+     * @param identifier The identifier of the sensor.
+     * @param values The values of the channels.
+     * */
+    public static void sensorValues(byte robot, int identifier, double[] values) {
+        if (!capturing) {
+            return;
+        }
+
+        ByteBuffer event = event(SENSOR_VALUES, 1 + 4 + 4 + values.length * 8);
+        event.put(robot);
+        event.putInt(identifier);
+        event.putInt(values.length);
+
+        for (double value : values) {
+            event.putDouble(value);
+        }
+
+        enqueue(event.array());
+    }
+
+    /**
+     * Records a frame received by a websocket sensor connection.
+     * @param connection The id of the connection.
+     * @param data The array the frame is in.
+     * @param offset The index of the first byte of the frame.
+     * @param length The number of bytes in the frame.
+     * */
+    public static void frame(int connection, byte[] data, int offset, int length) {
+        if (!capturing) {
+            return;
+        }
+
+        ByteBuffer event = event(FRAME, 4 + 4 + length);
+        event.putInt(connection);
+        event.putInt(length);
+        event.put(data, offset, length);
+
+        enqueue(event.array());
+    }
+
+    /**
+     * Records the value of a captured topic.
+     * @param topic The topic that was updated.
+     * */
+    private static void topic(Topica.Database.Topic topic) {
+        if (!capturing) {
+            return;
+        }
+
+        // the data of a topic is reused between updates, so copy it while no one can write to it
+        byte[] data;
+
+        synchronized (topic) {
+            data = topic.getData().clone();
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE + topic.getPath().length() + 7 + data.length);
+
+        try (DataOutputStream event = new DataOutputStream(bytes)) {
+            // the time is filled in when it's queued
+            event.writeByte(TOPIC);
+            event.writeLong(0);
+            event.writeUTF(topic.getPath());
+            event.writeByte(topic.getType());
+            event.writeInt(data.length);
+            event.write(data);
+        } catch (IOException e) {
+            // can't happen when writing to memory
+            throw new IllegalStateException(e);
+        }
+
+        enqueue(bytes.toByteArray());
+    }
+
+    /**
+     * Starts capturing a topic if it matches one of the patterns, and records its current value.
+     * @param topic The topic to check.
+     * */
+    private static void attach(Topica.Database.Topic topic) {
+        boolean matches = false;
+
+        for (String pattern : patterns) {
+            if (TopicTrie.matches(pattern, topic.getPath())) {
+                matches = true;
+                break;
+            }
+        }
+
+        if (!matches) {
+            return;
+        }
+
+        synchronized (Capture.class) {
+            if (!capturing || captured.contains(topic)) {
+                return;
+            }
+
+            captured.add(topic);
+        }
+
+        topic.addCallback(topicCallback);
+
+        // so the replay starts from the same values
+        topic(topic);
+    }
+
+    /**
+     * Creates an event, with room for its header (the time is filled in when it's queued).
+     * @param kind The kind of the event.
+     * @param payload The size of the payload of the event.
+     * @return The event, positioned at the start of the payload.
+     * */
+    private static ByteBuffer event(byte kind, int payload) {
+        ByteBuffer event = ByteBuffer.allocate(HEADER_SIZE + payload);
+        event.put(kind);
+        event.position(HEADER_SIZE);
+
+        return event;
+    }
+
+    /**
+     * Stamps an event with the current time and queues it to be written, or drops it if the writer is too far behind.
+     * The time is taken in the same lock as the event is queued, so the events in the file are always in order.
+     * @param event The encoded event.
+     * */
+    private static void enqueue(byte[] event) {
+        synchronized (queue) {
+            if (!capturing) {
+                return;
+            }
+
+            if (queuedBytes + event.length > MAX_QUEUED_BYTES) {
+                droppedEvents++;
+                return;
+            }
+
+            long time = Clock.now() - startTime;
+
+            for (int i = 0; i < Long.BYTES; i++) {
+                event[1 + i] = (byte) (time >>> (8 * (Long.BYTES - 1 - i)));
+            }
+
+            queue.add(event);
+            queuedBytes += event.length;
+
+            queue.notifyAll();
+        }
+    }
+
+    /**
+     * The loop of the background thread: writes the queued events and flushes them to disk every second, until the capture stops.
+     * @param stream The stream of the capture file.
+     * */
+    private static void runWriter(DataOutputStream stream) {
+        ArrayList<byte[]> batch = new ArrayList<>();
+        long lastFlush = System.currentTimeMillis();
+
+        try {
+            while (true) {
+                boolean stopping;
+
+                synchronized (queue) {
+                    if (capturing && queue.isEmpty()) {
+                        queue.wait(FLUSH_INTERVAL);
+                    }
+
+                    stopping = !capturing;
+
+                    batch.addAll(queue);
+                    queue.clear();
+                    queuedBytes = 0;
+                }
+
+                for (byte[] event : batch) {
+                    stream.write(event);
+                }
+
+                batch.clear();
+
+                if (stopping) {
+                    break;
+                }
+
+                if (System.currentTimeMillis() - lastFlush >= FLUSH_INTERVAL) {
+                    stream.flush();
+                    lastFlush = System.currentTimeMillis();
+                }
+            }
+
+            stream.flush();
+        } catch (IOException e) {
+            System.out.println("[WARNING] Capture failed, stopping: " + e.getMessage());
+
+            capturing = false;
+
+            // stop() waits for this thread, so it can't be called from it
+            Thread stopper = new Thread(Capture::stop, "capture-stop");
+            stopper.setDaemon(true);
+            stopper.start();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package me.autobot.simulation;
+
+import me.autobot.lib.hardware.ws.WSSensorConnection;
+import me.autobot.lib.math.Clock;
+import me.autobot.lib.robot.Robot;
+import me.autobot.lib.robot.Sensor;
+import me.autobot.lib.server.WSClient;
+import me.autobot.lib.server.topica.Topica;
+import me.autobot.lib.systems.mechanisms.Mechanism;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays back a {@link Capture} into a robot, with the robot loop running in lockstep on a virtual {@link Clock}.
+ * <p>
+ * Every step, the virtual clock is moved forward by the loop time of the robot, every event up to the new time is applied
+ * (sensor values, topic updates and websocket sensor frames), and then the robot is stepped once.
+ * Since the robot only ever sees the virtual time, the same capture always produces the same run, no matter how fast it is played back.
+ * */
+public class Replay implements AutoCloseable {
+    private final DataInputStream in;
+    private final long startTime;
+
+    // the next event, read ahead so we know when it is due
+    private byte kind;
+    private long time;
+    private boolean done = false;
+
+    private long events = 0;
+    private long steps = 0;
+
+    /**
+     * Opens a capture to replay.
+     * @param file The capture file.
+     * @throws IOException If the file cannot be read, or is not a capture.
+     * */
+    public Replay(Path file) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024));
+
+        if (in.readInt() != Capture.MAGIC) {
+            in.close();
+            throw new IOException(file + " is not a capture.");
+        }
+
+        short version = in.readShort();
+
+        if (version != Capture.VERSION) {
+            in.close();
+            throw new IOException("Unsupported capture version " + version + ".");
+        }
+
+        startTime = in.readLong();
+
+        next();
+    }
+
+    /**
+     * Gets the time the capture was started at.
+     * @return The time the capture was started at, in ms since the epoch.
+     * */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Plays back the capture into a robot until it runs out of events.
+     * The robot should have been created in lockstep (see {@link Robot#setLockstep(boolean)}), after {@link Clock#useVirtualTime(long)},
+     * otherwise its own timer will also run the loop.
+     * The mechanism barrier is enabled while playing (see {@link Mechanism#setBarrier(boolean)}), so every step's mechanism updates
+     * finish before the next step's events are applied.
+     * @param robot The robot to play the capture into.
+     * @param speed How fast to play back compared to real time (1 is real time, 2 is twice as fast), or 0 or less to play back as fast as possible.
+     * @throws IOException If the capture cannot be read.
+     * */
+    public void play(Robot robot, double speed) throws IOException {
+        if (!Clock.isVirtual()) {
+            throw new IllegalStateException("Cannot replay without virtual time, call Clock.useVirtualTime() before creating the robot.");
+        }
+
+        long loopTime = Math.max(robot.getLoopTime(), 1);
+
+        long wallStart = System.nanoTime();
+
+        boolean barrier = Mechanism.hasBarrier();
+        Mechanism.setBarrier(true);
+
+        try {
+            play(robot, speed, loopTime, wallStart);
+        } finally {
+            Mechanism.setBarrier(barrier);
+        }
+
+        long elapsed = steps * loopTime;
+        double wallTime = (System.nanoTime() - wallStart) / 1e9;
+
+        System.out.printf("[INFO] Replayed %d events over %d steps (%.1fs of robot time) in %.2fs, %.0f steps/s.%n",
+                events, steps, elapsed / 1000.0, wallTime, steps / wallTime);
+    }
+
+    /**
+     * Steps the robot until the capture runs out of events.
+     * @param robot The robot to play the capture into.
+     * @param speed How fast to play back compared to real time, or 0 or less to play back as fast as possible.
+     * @param loopTime The loop time of the robot, in ms.
+     * @param wallStart The time the playback started, from {@link System#nanoTime()}.
+     * @throws IOException If the capture cannot be read.
+     * */
+    private void play(Robot robot, double speed, long loopTime, long wallStart) throws IOException {
+        long elapsed = 0;
+
+        while (!done) {
+            elapsed += loopTime;
+            Clock.advance(loopTime);
+
+            while (!done && time <= elapsed) {
+                apply();
+                next();
+            }
+
+            robot.step();
+            steps++;
+
+            if (speed > 0) {
+                long due = wallStart + (long) (elapsed * 1_000_000 / speed);
+                long wait;
+
+                while ((wait = due - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the number of events applied so far.
+     * @return The number of events applied.
+     * */
+    public long getEvents() {
+        return events;
+    }
+
+    /**
+     * Gets the number of times the robot has been stepped so far.
+     * @return The number of steps.
+     * */
+    public long getSteps() {
+        return steps;
+    }
+
+    /**
+     * Reads the header of the next event.
+     * @throws IOException If the capture cannot be read.
+     * */
+    private void next() throws IOException {
+        try {
+            kind = in.readByte();
+            time = in.readLong();
+        } catch (EOFException e) {
+            done = true;
+        }
+    }
+
+    /**
+     * Reads the payload of the current event and applies it.
+     * @throws IOException If the capture cannot be read.
+     * */
+    private void apply() throws IOException {
+        events++;
+
+        switch (kind) {
+            case Capture.SENSOR_VALUE: {
+                byte robot = in.readByte();
+                int identifier = in.readInt();
+                int index = in.readInt();
+                double value = in.readDouble();
+
+                Sensor sensor = Sensor.getSensor(identifier, robot);
+
+                if (sensor != null) {
+                    sensor.setSensorValue(index, value);
+                }
+
+                break;
+            }
+            case Capture.SENSOR_VALUES: {
+                byte robot = in.readByte();
+                int identifier = in.readInt();
+                double[] values = new double[in.readInt()];
+
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = in.readDouble();
+                }
+
+                Sensor sensor = Sensor.getSensor(identifier, robot);
+
+                if (sensor != null) {
+                    if (!sensor.inSimulation()) {
+                        sensor.enableSimulation();
+                    }
+
+                    sensor.simulateValues(values);
+                }
+
+                break;
+            }
+            case Capture.TOPIC: {
+                String path = in.readUTF();
+                byte type = in.readByte();
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+
+                Topica.topic(path, type).update(data);
+
+                break;
+            }
+            case Capture.FRAME: {
+                int id = in.readInt();
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+
+                WSSensorConnection connection = WSClient.getSensorConnection(id);
+
+                if (connection != null) {
+                    connection.onUpdate(data, 0, data.length);
+                }
+
+                break;
+            }
+            default:
+                throw new IOException("Unknown capture event " + kind + ".");
+        }
+    }
+
+    /**
+     * Closes the capture file.
+     * @throws IOException If the file cannot be closed.
+     * */
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -3,6 +3,11 @@ package me.autobot.simulation;
 import me.autobot.code.Main;
 import me.autobot.lib.hardware.i2c.I2CConnection;
 import me.autobot.lib.hardware.serial.SerialConnection;
+import me.autobot.lib.math.Clock;
+import me.autobot.lib.robot.Robot;
+
+import java.io.IOException;
+import java.nio.file.Path;
 
 /**
  * A class for simulating the robot.
@@ -22,6 +27,10 @@ public class Simulate {
 
     /**
      * Main thread for simulation.
+     * To play back a capture (see {@link Capture}) into a robot, run with {@code --replay <file>},
+     * optionally with {@code --speed <n>} (1 is real time, 0 is as fast as possible) and {@code --robot <index>}.
+     * The robot then runs in lockstep with the capture on a virtual clock, and the program exits when the capture ends.
+     * @param args The arguments passed to the program.
      * */
     public static void main(String[] args) {
         simulation = true;
@@ -31,7 +40,56 @@ public class Simulate {
         // disable any outgoing comms via i2c
         I2CConnection.disableConnections();
 
-        // run through our main code
-        Main.main(args);
+        String replay = null;
+        double speed = 1;
+        int robotIndex = 0;
+
+        for (int i = 0; i < args.length - 1; i++) {
+            switch (args[i]) {
+                case "--replay":
+                    replay = args[++i];
+                    break;
+                case "--speed":
+                    speed = Double.parseDouble(args[++i]);
+                    break;
+                case "--robot":
+                    robotIndex = Integer.parseInt(args[++i]);
+                    break;
+            }
+        }
+
+        if (replay == null) {
+            // run through our main code
+            Main.main(args);
+            return;
+        }
+
+        try (Replay capture = new Replay(Path.of(replay))) {
+            // the robot has to see the same time as when it was captured, so it must be created on the virtual clock
+            Clock.useVirtualTime(capture.getStartTime());
+            Robot.setLockstep(true);
+
+            Main.main(args);
+
+            if (Robot.getRobots().isEmpty()) {
+                Robot.startRobot(robotIndex);
+            }
+
+            if (Robot.getRobots().isEmpty()) {
+                System.out.println("[WARNING] No robot to replay the capture into.");
+                System.exit(1);
+            }
+
+            Robot.startSimulation();
+
+            capture.play(Robot.getInstance(), speed);
+
+            Robot.getInstance().stopLoop();
+        } catch (IOException e) {
+            System.out.println("[WARNING] Could not replay " + replay + ": " + e.getMessage());
+            System.exit(1);
+        }
+
+        System.exit(0);
     }
 }
@@ -0,0 +1,94 @@
+package me.autobot.test;
+
+import me.autobot.lib.server.topica.FlightRecorder;
+import me.autobot.lib.server.topica.Topica;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Class to benchmark the cost the flight recorder adds to a topic update.
+ * At 2,000 updates/s, the recorder should stay well under 1% of a core.
+ * */
+public class FlightRecorderBenchmark {
+    private static final int UPDATES = 2_000_000;
+    private static final int WARMUP_ROUNDS = 3;
+
+    /**
+     * Main method to run the benchmark.
+     * @param args The arguments to the program.
+     * @throws IOException If the temporary directory cannot be created.
+     * */
+    public static void main(String[] args) throws IOException {
+        Topica.Database database = Topica.getDatabase();
+
+        // don't spam the console with the topics we add
+        database.getTopic("/topica/verbose").update(false);
+
+        Topica.Database.Topic topic = new Topica.Database.Topic("/benchmark/recorded", 0d);
+
+        double off = run(topic, "recorder off");
+
+        Path directory = Files.createTempDirectory("topica-recordings");
+        FlightRecorder.configure(directory, 64 * 1024 * 1024, 4);
+        FlightRecorder.start();
+
+        double on = run(topic, "recorder on");
+
+        FlightRecorder.stop();
+
+        System.out.printf("recorded %d updates (%d dropped) to %s%n", FlightRecorder.getRecordCount(), FlightRecorder.getDroppedCount(), directory);
+        System.out.printf("recorder cost: %.1f ns/update, %.4f%% of a core at 2,000 updates/s%n", on - off, (on - off) * 2000 / 1e9 * 100);
+
+        // the segments are preallocated, so don't leave them lying around
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(directory)) {
+            for (Path segment : segments) {
+                Files.delete(segment);
+            }
+        }
+
+        Files.delete(directory);
+    }
+
+    /**
+     * Runs the updates after warming them up, and prints the time and bytes allocated per update.
+     * @param topic The topic to update.
+     * @param name The name of the run.
+     * @return The time per update in ns.
+     * */
+    private static double run(Topica.Database.Topic topic, String name) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            loop(topic);
+        }
+
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+
+        loop(topic);
+
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+
+        double perUpdate = (double) elapsed / UPDATES;
+
+        System.out.printf("%-14s %6.1f ns/update %8.3f B/update%n", name, perUpdate, (double) allocated / UPDATES);
+
+        return perUpdate;
+    }
+
+    /**
+     * Updates the topic in a loop.
+     * @param topic The topic to update.
+     * */
+    private static void loop(Topica.Database.Topic topic) {
+        for (int i = 0; i < UPDATES; i++) {
+            topic.update(i * 0.5);
+        }
+    }
+}
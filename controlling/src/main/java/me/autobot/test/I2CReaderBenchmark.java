@@ -0,0 +1,185 @@
+package me.autobot.test;
+
+import me.autobot.lib.hardware.i2c.I2CConnection;
+import me.autobot.lib.hardware.i2c.I2CDevice;
+import me.autobot.lib.hardware.i2c.I2CDeviceProvider;
+import me.autobot.lib.hardware.i2c.SensorHubI2CConnection;
+import me.autobot.lib.robot.Sensor;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Class to benchmark the sensor hub I2C reader against a mock Arduino, without any hardware.
+ * The mock produces pin frames at a fixed rate and hands them out 16 bytes per request like the readwriter code,
+ * and the benchmark measures how many requests the reader makes and how long frames wait before reaching the sensor,
+ * first polling (with backoff) and then with a data ready pin.
+ * */
+public class I2CReaderBenchmark {
+    private static final int PINS = 3;
+    private static final int RATE = 100;
+    private static final long DURATION = 3_000;
+
+    /**
+     * A mock Arduino running the readwriter code: every pin it is subscribed to produces a frame at a fixed rate.
+     * */
+    private static class MockSensorHub implements I2CDevice {
+        private final ArrayDeque<Byte> output = new ArrayDeque<>();
+        private final long[] producedAt = new long[1 << 16];
+        private int produced = 0;
+
+        private Runnable onReady;
+
+        /**
+         * Produces a frame for a pin, with the index of the frame as its value.
+         * @param pin The pin.
+         * */
+        private synchronized void produce(int pin) {
+            int index = produced++ & 0xFFFF;
+            producedAt[index] = System.nanoTime();
+
+            int bits = Float.floatToIntBits(index);
+
+            for (byte b : new byte[] { (byte) 0xA3, (byte) pin, (byte) (bits >>> 24), (byte) (bits >>> 16), (byte) (bits >>> 8), (byte) bits, 0x01 }) {
+                output.add(b);
+            }
+
+            if (onReady != null) {
+                onReady.run();
+            }
+        }
+
+        /**
+         * Gets the time a frame was produced.
+         * @param index The index of the frame.
+         * @return The time the frame was produced, from {@link System#nanoTime()}.
+         * */
+        private synchronized long producedAt(int index) {
+            return producedAt[index & 0xFFFF];
+        }
+
+        @Override
+        public int write(byte[] data) {
+            return data.length;
+        }
+
+        @Override
+        public synchronized int read(byte[] buffer, int offset, int length) {
+            // always answers with a full request, padded with 0s
+            for (int i = 0; i < length; i++) {
+                Byte b = output.poll();
+                buffer[offset + i] = b == null ? 0 : b;
+            }
+
+            return length;
+        }
+
+        @Override
+        public void close() {
+
+        }
+    }
+
+    /**
+     * A sensor that records how long each frame took to reach it.
+     * */
+    private static class LatencySensor extends Sensor {
+        private final MockSensorHub hub;
+        private final long[] latencies = new long[(int) (DURATION / 1000 + 1) * RATE * PINS * 2];
+        private int count = 0;
+
+        private LatencySensor(MockSensorHub hub) {
+            super(0, PINS);
+            this.hub = hub;
+        }
+
+        @Override
+        public void setSensorValue(int index, double value) {
+            super.setSensorValue(index, value);
+
+            if (count < latencies.length) {
+                latencies[count++] = System.nanoTime() - hub.producedAt((int) value);
+            }
+        }
+    }
+
+    /**
+     * Main method to run the benchmark.
+     * @param args The arguments to the program.
+     * @throws InterruptedException If the benchmark is interrupted.
+     * */
+    public static void main(String[] args) throws InterruptedException {
+        run("polling", false);
+        run("data ready pin", true);
+
+        System.exit(0);
+    }
+
+    /**
+     * Runs the reader against a mock Arduino and prints the results.
+     * @param name The name of the run.
+     * @param dataReady Whether the mock has a data ready pin.
+     * @throws InterruptedException If the benchmark is interrupted.
+     * */
+    private static void run(String name, boolean dataReady) throws InterruptedException {
+        MockSensorHub hub = new MockSensorHub();
+
+        I2CConnection.setProvider(new I2CDeviceProvider() {
+            @Override
+            public I2CDevice open(String id, int bus, int device) {
+                return hub;
+            }
+
+            @Override
+            public boolean watchDataReady(int pin, Runnable onReady) {
+                if (!dataReady) return false;
+
+                hub.onReady = onReady;
+                return true;
+            }
+        });
+
+        SensorHubI2CConnection connection = new SensorHubI2CConnection(name, 1, 0x12);
+
+        if (dataReady) {
+            connection.useDataReadyPin(17);
+        }
+
+        LatencySensor sensor = new LatencySensor(hub);
+        int[] pins = new int[PINS];
+
+        for (int i = 0; i < PINS; i++) {
+            pins[i] = 2 + i;
+        }
+
+        connection.subscribeSensor(sensor, pins);
+
+        long period = 1_000_000_000L / RATE;
+        long start = System.nanoTime();
+        long next = start;
+
+        while (System.nanoTime() - start < DURATION * 1_000_000) {
+            for (int pin : pins) {
+                hub.produce(pin);
+            }
+
+            next += period;
+            Thread.sleep(Math.max(0, (next - System.nanoTime()) / 1_000_000));
+        }
+
+        Thread.sleep(100);
+
+        long[] latencies = Arrays.copyOf(sensor.latencies, sensor.count);
+        Arrays.sort(latencies);
+
+        double seconds = DURATION / 1000.0;
+
+        System.out.printf("%-15s %6.0f frames/s %6.0f reads/s (%4.1f%% empty), latency mean %5.2f ms, p99 %5.2f ms%n",
+                name,
+                connection.getFramesRead() / seconds,
+                connection.getReads() / seconds,
+                100.0 * connection.getEmptyReads() / Math.max(connection.getReads(), 1),
+                Arrays.stream(latencies).average().orElse(0) / 1e6,
+                latencies.length == 0 ? 0 : latencies[(int) (latencies.length * 0.99)] / 1e6);
+    }
+}
@@ -0,0 +1,80 @@
+package me.autobot.test;
+
+import me.autobot.lib.server.topica.Topica;
+
+/**
+ * Class to benchmark topic lookups in the Topica database.
+ * The lookup cost should stay (roughly) flat as the number of topics grows.
+ * */
+public class TopicaLookupBenchmark {
+    private static final int[] SIZES = new int[] { 10, 100, 1000, 10000 };
+
+    private static final int LOOKUPS = 2_000_000;
+    private static final int WARMUP_ROUNDS = 3;
+
+    /**
+     * Main method to run the benchmark.
+     * @param args The arguments to the program.
+     * */
+    public static void main(String[] args) {
+        Topica.Database database = Topica.getDatabase();
+
+        // don't spam the console with every topic we add
+        database.getTopic("/topica/verbose").update(false);
+
+        int created = 0;
+
+        for (int size : SIZES) {
+            for (; created < size; created++) {
+                new Topica.Database.Topic(path(created), (double) created);
+            }
+
+            String[] paths = new String[size];
+            for (int i = 0; i < size; i++) {
+                // fresh strings, so the hash isn't cached like it would be for a path off the wire
+                paths[i] = new String(path(i).toCharArray());
+            }
+
+            long sink = 0;
+
+            for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                sink += run(database, paths);
+            }
+
+            long start = System.nanoTime();
+            sink += run(database, paths);
+            long elapsed = System.nanoTime() - start;
+
+            System.out.printf("%6d topics: %6.1f ns/lookup (sink=%d)%n", size, (double) elapsed / LOOKUPS, sink);
+        }
+    }
+
+    /**
+     * Runs the lookups over the given paths.
+     * @param database The database to look up in.
+     * @param paths The paths to look up.
+     * @return A value depending on the result, so the lookups aren't optimized away.
+     * */
+    private static long run(Topica.Database database, String[] paths) {
+        long sink = 0;
+
+        for (int i = 0; i < LOOKUPS; i++) {
+            Topica.Database.Topic topic = database.getTopic(paths[i % paths.length]);
+
+            if (topic != null) {
+                sink += topic.getType();
+            }
+        }
+
+        return sink;
+    }
+
+    /**
+     * Gets the path of the nth benchmark topic.
+     * @param n The index of the topic.
+     * @return The path of the topic.
+     * */
+    private static String path(int n) {
+        return "/benchmark/sensor" + (n / 100) + "/value" + (n % 100);
+    }
+}
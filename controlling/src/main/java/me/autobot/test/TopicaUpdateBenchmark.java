@@ -0,0 +1,120 @@
+package me.autobot.test;
+
+import me.autobot.lib.server.topica.Topica;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Class to benchmark the primitive update and get paths of Topica topics.
+ * Reports the time and the bytes allocated per operation, which should be 0 once the topics have been written to once.
+ * */
+public class TopicaUpdateBenchmark {
+    private static final int OPERATIONS = 5_000_000;
+    private static final int WARMUP_ROUNDS = 5;
+
+    /**
+     * An operation to benchmark.
+     * */
+    private interface Operation {
+        /**
+         * Runs the operation.
+         * @param i The index of the run.
+         * @return A value depending on the result, so the operation isn't optimized away.
+         * */
+        double run(int i);
+    }
+
+    /**
+     * Main method to run the benchmark.
+     * @param args The arguments to the program.
+     * */
+    public static void main(String[] args) {
+        Topica.Database database = Topica.getDatabase();
+
+        // don't spam the console with the topics we add
+        database.getTopic("/topica/verbose").update(false);
+
+        Topica.Database.Topic intTopic = new Topica.Database.Topic("/benchmark/int", 0);
+        Topica.Database.Topic longTopic = new Topica.Database.Topic("/benchmark/long", 0L);
+        Topica.Database.Topic floatTopic = new Topica.Database.Topic("/benchmark/float", 0f);
+        Topica.Database.Topic doubleTopic = new Topica.Database.Topic("/benchmark/double", 0d);
+        Topica.Database.Topic booleanTopic = new Topica.Database.Topic("/benchmark/boolean", false);
+
+        // a topic with a listener, like a subscribed joystick axis
+        Topica.Database.Topic axisTopic = new Topica.Database.Topic("/benchmark/axis", 0d);
+        double[] last = new double[1];
+        axisTopic.addCallback((topic) -> last[0] = topic.getAsDouble());
+
+        run("update(int) + getAsInt", (i) -> {
+            intTopic.update(i);
+            return intTopic.getAsInt();
+        });
+
+        run("update(long) + getAsLong", (i) -> {
+            longTopic.update((long) i);
+            return longTopic.getAsLong();
+        });
+
+        run("update(float) + getAsFloat", (i) -> {
+            floatTopic.update((float) i);
+            return floatTopic.getAsFloat();
+        });
+
+        run("update(double) + getAsDouble", (i) -> {
+            doubleTopic.update((double) i);
+            return doubleTopic.getAsDouble();
+        });
+
+        run("update(boolean) + getAsBoolean", (i) -> {
+            booleanTopic.update((i & 1) == 0);
+            return booleanTopic.getAsBoolean() ? 1 : 0;
+        });
+
+        run("update(double) with callback", (i) -> {
+            axisTopic.update(i * 0.5);
+            return last[0];
+        });
+    }
+
+    /**
+     * Runs an operation after warming it up, and prints the time and bytes allocated per operation.
+     * @param name The name of the operation.
+     * @param operation The operation to run.
+     * */
+    private static void run(String name, Operation operation) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        double sink = 0;
+
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            sink += loop(operation);
+        }
+
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+
+        sink += loop(operation);
+
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+
+        System.out.printf("%-32s %6.1f ns/op %8.3f B/op (sink=%.1f)%n",
+                name, (double) elapsed / OPERATIONS, (double) allocated / OPERATIONS, sink);
+    }
+
+    /**
+     * Runs an operation in a loop.
+     * @param operation The operation to run.
+     * @return The sum of the results, so the operation isn't optimized away.
+     * */
+    private static double loop(Operation operation) {
+        double sink = 0;
+
+        for (int i = 0; i < OPERATIONS; i++) {
+            sink += operation.run(i);
+        }
+
+        return sink;
+    }
+}
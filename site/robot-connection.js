@@ -319,6 +319,33 @@ class RobotConnection {
                     });
                 }
 
+                for (let callback of this.sensorListeners[0xA5][0xA5]) {
+                    callback(values);
+                }
+            } else if (data.at(0) == 0xA7) { // compact LIDAR update
+                const n_values = Math.floor((data.length - 4) / 5);
+
+                // struct:
+                // 2 bytes: distance (mm)
+                // 2 bytes: angle (1/100 of a degree)
+                // 1 byte: intensity
+
+                let values = [];
+                for (let i = 0; i < n_values; i++) {
+                    let i5 = i * 5 + 4;
+
+                    // converted back to the units of the full update (1/25 m and radians)
+                    let distance = data.readUInt16BE(i5) / 1000 * 25;
+                    let angle = data.readUInt16BE(i5 + 2) / 100 * Math.PI / 180;
+                    let intensity = data.readUInt8(i5 + 4);
+
+                    values.push({
+                        distance,
+                        angle,
+                        intensity
+                    });
+                }
+
                 for (let callback of this.sensorListeners[0xA5][0xA5]) {
                     callback(values);
                 }
@@ -376,15 +403,15 @@ class RobotConnection {
 
     /**
      * Subscribes to LIDAR (specialized) on the robot
-     * @param {number} 
-     * @param {*} state 
+     * @param {boolean} unsubscribe
+     * @param {boolean} compact whether to get the compact scans (5 bytes per point instead of 12)
      */
-    subscribeToLidar(unsubscribe=false) {
+    subscribeToLidar(unsubscribe=false, compact=false) {
         this.ws.send([
             0x01,
             0x02,
             0xA5,
-            unsubscribe ? 0x00 : 0x01
+            unsubscribe ? 0x00 : (compact ? 0x02 : 0x01)
         ])
     }
 